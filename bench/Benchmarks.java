@@ -0,0 +1,357 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Benchmarks times the hot paths of the algorithms and of the data I/O on generated data
+ * shaped like the files in data/, at several data sizes and k.
+ *
+ * JMH cannot host these: it refuses benchmark classes in the default package, and code in any
+ * other package cannot see the classes under test. So this is a small harness in the same
+ * spirit - warmup rounds, then timed rounds of single invocations - that reports throughput,
+ * latency percentiles, allocated bytes per operation and GC activity, like JMH with -prof gc.
+ *
+ * Usage: java Benchmarks [filter] [sizes=n1,n2,...] [quick]
+ */
+public class Benchmarks {
+  private static final int[] DEFAULT_SIZES = {1_000, 100_000, 1_000_000};
+  private static final int[] KS = {2, 6, 50};
+  // the k of the hierarchical benchmarks, where Lloyd iterations get expensive
+  private static final int LARGE_K = 1024;
+
+  private static int warmup = 5;
+  private static int rounds = 20;
+  // fast single-point operations are timed in batches of this many calls
+  private static final int BATCH = 10_000;
+
+  /**
+   * One benchmarked operation.
+   */
+  private interface Op {
+    /**
+     * Run the operation once.
+     * @return a value depending on the result, so that the work cannot be optimised away
+     * @throws Exception if the operation fails
+     */
+    double run() throws Exception;
+  }
+
+  // where results are sunk, so that the JIT has to compute them
+  private static double blackhole;
+
+  /**
+   * Main method. Run every benchmark matching the filter.
+   * @param args an optional name filter, sizes=... and quick
+   * @throws Exception if a benchmark fails
+   */
+  public static void main(String[] args) throws Exception {
+    String filter = "";
+    int[] sizes = DEFAULT_SIZES;
+    for (String arg : args) {
+      if (arg.equals("quick")) {
+        warmup = 2;
+        rounds = 5;
+      }
+      else if (arg.startsWith("sizes=")) {
+        sizes = Arrays.stream(arg.substring(6).split(",")).mapToInt(Integer::parseInt).toArray();
+      }
+      else {
+        filter = arg;
+      }
+    }
+
+    System.out.println(String.format(Locale.ROOT, "%-40s %12s %10s %10s %10s %14s %6s",
+            "benchmark", "ops/s", "p50 us", "p99 us", "max us", "alloc B/op", "gcs"));
+
+    for (int n : sizes) {
+      PackedTuples line = lineData(n, 1);
+      ListOfTuplesImpl lineList = toList(line);
+      Tuple probe = new Tuple(12.5, -40.25);
+
+      run(filter, "linreg.execute n=" + n, () -> {
+        LinearRegressionImpl linReg = new LinearRegressionImpl();
+        lineList.accept(linReg);
+        return linReg.getSlope();
+      });
+      run(filter, "theilsen.execute n=" + n, () -> {
+        TheilSenRegression theilSen = new TheilSenRegression();
+        theilSen.execute(line);
+        return theilSen.getSlope();
+      });
+      run(filter, "ransac.execute n=" + n, () -> {
+        RansacRegression ransac = new RansacRegression(45);
+        ransac.execute(line);
+        return ransac.getSlope();
+      });
+      // 16 features per row: the coordinates of 8 generated points
+      double[] wide = new DataGenerator(2).generate(8 * n, false).doubles();
+      double[] response = new double[n];
+      for (int i = 0; i < n; i++) {
+        response[i] = line.getY(i);
+      }
+      run(filter, "multiregression.fit n=" + n + " p=16", () -> {
+        MultipleRegression regression = new MultipleRegression(16);
+        regression.fit(wide, response);
+        return regression.getIntercept();
+      });
+      run(filter, "listutils.bounds n=" + n, () -> ListUtils.maxX(lineList.getHead())
+              + ListUtils.minX(lineList.getHead()) + ListUtils.maxY(lineList.getHead())
+              + ListUtils.minY(lineList.getHead()));
+      run(filter, "fusedscan.linear n=" + n, () -> {
+        RegressionStats stats = new RegressionStats();
+        FusedScan.Bounds bounds = new FusedScan.Bounds();
+        lineList.accept(new FusedScan().add(stats).add(bounds));
+        return stats.slope() + bounds.getMaxX();
+      });
+
+      File text = File.createTempFile("bench-linedata", ".txt");
+      text.deleteOnExit();
+      writeText(line, text);
+      run(filter, "implementation.readData n=" + n, () ->
+              Implementation.readData(text).getHead().size());
+
+      for (int k : KS) {
+        if (k > n) {
+          continue;
+        }
+        PackedTuples blobs = clusterData(n, k, 2);
+        ListOfTuplesImpl blobList = toList(blobs);
+        List<Tuple> centers = blobList.getHead().subList(0, k);
+
+        run(filter, "kmeans.execute n=" + n + " k=" + k, () -> {
+          KMeansImpl kMeans = new KMeansImpl(k);
+          // the same initial centers in every run, so that runs time the same work
+          kMeans.setSeed(1);
+          kMeans.setConvergence(KMeansImpl.Convergence.CHANGES, 0);
+          kMeans.execute(blobs);
+          return kMeans.getIterations();
+        });
+        run(filter, "kmeans.execute.parallel n=" + n + " k=" + k, () -> {
+          KMeansImpl kMeans = new KMeansImpl(k);
+          kMeans.setSeed(1);
+          kMeans.setParallelism(Runtime.getRuntime().availableProcessors());
+          kMeans.setConvergence(KMeansImpl.Convergence.CHANGES, 0);
+          kMeans.execute(blobs);
+          return kMeans.getIterations();
+        });
+        run(filter, "kmeans.execute.float n=" + n + " k=" + k, () -> {
+          KMeansImpl kMeans = new KMeansImpl(k);
+          kMeans.setSeed(1);
+          kMeans.setSinglePrecision(true);
+          kMeans.setConvergence(KMeansImpl.Convergence.CHANGES, 0);
+          kMeans.execute(PackedTuples.pack(blobList.getHead(), true));
+          return kMeans.getIterations();
+        });
+        run(filter, "kmeans.execute.filtering n=" + n + " k=" + k, () -> {
+          KMeansImpl kMeans = new KMeansImpl(k);
+          kMeans.setSeed(1);
+          kMeans.setFiltering(true);
+          kMeans.setConvergence(KMeansImpl.Convergence.CHANGES, 0);
+          kMeans.execute(blobs);
+          return kMeans.getIterations();
+        });
+
+        run(filter, "kmeans.coreset n=" + n + " k=" + k, () -> {
+          KMeansImpl kMeans = new KMeansImpl(k);
+          kMeans.setSeed(1);
+          kMeans.setConvergence(KMeansImpl.Convergence.CHANGES, 0);
+          kMeans.execute(Sampling.coreset(blobs, Math.min(n, 200 * k), 3));
+          return kMeans.getIterations();
+        });
+
+        if (n == sizes[0]) {
+          /*
+           * single-point operations do not depend on n; time them once per k
+           */
+          KMeansImpl trained = new KMeansImpl(k);
+          trained.setSeed(1);
+          trained.execute(blobs);
+          KMeansModel model = trained.getModel();
+          runBatched(filter, "tuple.minDistance k=" + k, () -> probe.minDistance(centers));
+          runBatched(filter, "kmeansmodel.predict k=" + k, () -> model.predict(12.5, -40.25));
+        }
+      }
+
+      if (n >= 100 * LARGE_K) {
+        PackedTuples blobs = clusterData(n, LARGE_K, 2);
+        run(filter, "bisecting.execute n=" + n + " k=" + LARGE_K, () -> {
+          BisectingKMeans bisecting = new BisectingKMeans(LARGE_K);
+          bisecting.setSeed(1);
+          bisecting.execute(blobs);
+          return bisecting.getTree().getDepth();
+        });
+        BisectingKMeans trained = new BisectingKMeans(LARGE_K);
+        trained.setSeed(1);
+        trained.execute(blobs);
+        ClusterTree tree = trained.getTree();
+        runBatched(filter, "clustertree.nearest n=" + n + " k=" + LARGE_K,
+                () -> tree.nearest(12.5, -40.25));
+      }
+    }
+  }
+
+  /**
+   * Time an operation and print one line of results, if its name matches the filter.
+   * @param filter the name filter
+   * @param name the name of the benchmark
+   * @param op the operation
+   * @throws Exception if the operation fails
+   */
+  private static void run(String filter, String name, Op op) throws Exception {
+    measure(filter, name, op, 1);
+  }
+
+  /**
+   * Like run, for operations too fast to time one by one: every timed sample is a batch
+   * of calls, and the results are reported per call.
+   * @param filter the name filter
+   * @param name the name of the benchmark
+   * @param op the operation
+   * @throws Exception if the operation fails
+   */
+  private static void runBatched(String filter, String name, Op op) throws Exception {
+    measure(filter, name, () -> {
+      double sum = 0;
+      for (int i = 0; i < BATCH; i++) {
+        sum += op.run();
+      }
+      return sum;
+    }, BATCH);
+  }
+
+  /**
+   * The measuring loop behind run and runBatched.
+   * @param filter the name filter
+   * @param name the name of the benchmark
+   * @param op the operation
+   * @param callsPerOp how many calls one run of op stands for
+   * @throws Exception if the operation fails
+   */
+  private static void measure(String filter, String name, Op op, int callsPerOp)
+          throws Exception {
+    if (!name.contains(filter)) {
+      return;
+    }
+    for (int i = 0; i < warmup; i++) {
+      blackhole += op.run();
+    }
+
+    long[] samples = new long[rounds];
+    long gcsBefore = gcCount();
+    long allocatedBefore = allocatedBytes();
+    long start = System.nanoTime();
+    for (int i = 0; i < rounds; i++) {
+      long t0 = System.nanoTime();
+      blackhole += op.run();
+      samples[i] = System.nanoTime() - t0;
+    }
+    long elapsed = System.nanoTime() - start;
+    long allocated = allocatedBytes() - allocatedBefore;
+    long gcs = gcCount() - gcsBefore;
+
+    Arrays.sort(samples);
+    double calls = (double) rounds * callsPerOp;
+    System.out.println(String.format(Locale.ROOT, "%-40s %12.1f %10.3f %10.3f %10.3f %14.1f %6d",
+            name,
+            calls / (elapsed / 1e9),
+            percentile(samples, 0.50) / 1e3 / callsPerOp,
+            percentile(samples, 0.99) / 1e3 / callsPerOp,
+            samples[samples.length - 1] / 1e3 / callsPerOp,
+            allocated < 0 ? Double.NaN : allocated / calls,
+            gcs));
+  }
+
+  /**
+   * Pick a percentile out of sorted samples (nearest rank).
+   * @param sorted the sorted samples
+   * @param p the percentile, in [0, 1]
+   * @return the sample at that percentile
+   */
+  private static long percentile(long[] sorted, double p) {
+    int rank = (int) Math.ceil(p * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(sorted.length - 1, rank))];
+  }
+
+  /**
+   * Get the number of bytes allocated so far by this thread.
+   * @return the allocated bytes, or -1 if the JVM cannot tell
+   */
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads)
+              .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+
+  /**
+   * Get the number of garbage collections so far.
+   * @return the total collection count of all collectors
+   */
+  private static long gcCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0, gc.getCollectionCount());
+    }
+    return count;
+  }
+
+  /**
+   * Generate Gaussian blobs like data/clusterdata-*.txt.
+   * @param n the number of points
+   * @param k the number of blobs
+   * @param seed the random seed
+   * @return the points
+   */
+  private static PackedTuples clusterData(int n, int k, long seed) {
+    DataGenerator generator = new DataGenerator(seed);
+    generator.setClusters(k, 40);
+    return generator.generate(n, false);
+  }
+
+  /**
+   * Generate noisy line data like data/linedata-*.txt.
+   * @param n the number of points
+   * @param seed the random seed
+   * @return the points
+   */
+  private static PackedTuples lineData(int n, long seed) {
+    DataGenerator generator = new DataGenerator(seed);
+    generator.setLine(0.8, 50, 15, -400, 400);
+    return generator.generate(n, false);
+  }
+
+  /**
+   * Turn packed points into a ListOfTuplesImpl.
+   * @param data the points
+   * @return the list
+   */
+  private static ListOfTuplesImpl toList(PackedTuples data) {
+    ListOfTuplesImpl list = new ListOfTuplesImpl();
+    for (int i = 0; i < data.size(); i++) {
+      list.add(data.get(i));
+    }
+    return list;
+  }
+
+  /**
+   * Write points in the text format of data/.
+   * @param data the points
+   * @param file the file to write
+   * @throws IOException if the file cannot be written
+   */
+  private static void writeText(PackedTuples data, File file) throws IOException {
+    try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+      for (int i = 0; i < data.size(); i++) {
+        out.printf(Locale.ROOT, "%.2f %.2f%n", data.getX(i), data.getY(i));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,16 @@
+import java.util.List;
+
+/**
+ * AppendListener is notified when Tuples are appended to a ListOfTuplesImpl, so that state
+ * derived from the data - such as a trained IncrementalKMeans - can follow it without
+ * reprocessing what it has already seen.
+ */
+public interface AppendListener {
+
+  /**
+   * Called after Tuples were appended, on the thread that appended them.
+   * @param data the whole list; the Tuples from start to the end are new
+   * @param start the index of the first new Tuple
+   */
+  void appended(List<Tuple> data, int start);
+}
@@ -0,0 +1,263 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Assignments stores one cluster index per data point in the smallest primitive array
+ * that can hold k clusters: a byte per point for up to 256 clusters, a char for up to
+ * 65536 clusters and an int otherwise.
+ *
+ * Assignments loaded from a saved model can also be a read-only view over a memory-mapped
+ * buffer in the same layout.
+ */
+public class Assignments {
+
+  /*
+   * exactly one of these is non-null, depending on k - or mapped, for a read-only view
+   */
+  private final byte[] bytes;
+  private final char[] chars;
+  private final int[] ints;
+  // little-endian entries of entryBytes each, for the read-only mapped view
+  private final ByteBuffer mapped;
+  private final int entryBytes;
+  private final int size;
+
+  /**
+   * Construct an Assignments object with every point assigned to cluster 0.
+   * @param size the number of data points
+   * @param k the number of clusters (this k is assumed to be > 0)
+   */
+  public Assignments(int size, int k) throws IllegalArgumentException {
+    if (size < 0 || k <= 0) {
+      throw new IllegalArgumentException("size cannot be negative and k must be positive!");
+    }
+    this.size = size;
+    this.mapped = null;
+    if (k <= 1 << 8) {
+      bytes = new byte[size];
+      chars = null;
+      ints = null;
+    }
+    else if (k <= 1 << 16) {
+      bytes = null;
+      chars = new char[size];
+      ints = null;
+    }
+    else {
+      bytes = null;
+      chars = null;
+      ints = new int[size];
+    }
+    this.entryBytes = bytesPerEntry();
+  }
+
+  /**
+   * Construct a read-only Assignments object over a buffer.
+   * @param mapped the buffer, holding size entries of entryBytes each
+   * @param size the number of data points
+   * @param entryBytes 1, 2 or 4
+   */
+  private Assignments(ByteBuffer mapped, int size, int entryBytes) {
+    this.bytes = null;
+    this.chars = null;
+    this.ints = null;
+    this.mapped = mapped.order(ByteOrder.LITTLE_ENDIAN);
+    this.size = size;
+    this.entryBytes = entryBytes;
+  }
+
+  /**
+   * Create a read-only view over assignments stored in a buffer, such as a memory-mapped file.
+   * @param buffer the buffer, holding size little-endian entries of entryBytes each
+   * @param size the number of data points
+   * @param entryBytes 1, 2 or 4
+   * @return the read-only view
+   */
+  static Assignments view(ByteBuffer buffer, int size, int entryBytes)
+          throws IllegalArgumentException {
+    if ((entryBytes != 1 && entryBytes != 2 && entryBytes != 4)
+            || buffer.remaining() < (long) size * entryBytes) {
+      throw new IllegalArgumentException("buffer does not hold " + size + " assignments!");
+    }
+    return new Assignments(buffer.slice(), size, entryBytes);
+  }
+
+  /**
+   * Copy assignments out of a buffer into a new, writable Assignments object.
+   * @param buffer the buffer, holding size little-endian entries of entryBytes each
+   * @param size the number of data points
+   * @param entryBytes 1, 2 or 4
+   * @return the copied assignments
+   */
+  static Assignments copyOf(ByteBuffer buffer, int size, int entryBytes)
+          throws IllegalArgumentException {
+    Assignments view = view(buffer, size, entryBytes);
+    // the smallest k that needs entryBytes, so that the copy uses the same layout
+    int k = entryBytes == 1 ? 1 : entryBytes == 2 ? (1 << 8) + 1 : (1 << 16) + 1;
+    Assignments copy = new Assignments(size, k);
+    ByteBuffer source = view.mapped;
+    if (copy.bytes != null) {
+      source.get(copy.bytes);
+    }
+    else if (copy.chars != null) {
+      source.asCharBuffer().get(copy.chars);
+    }
+    else {
+      source.asIntBuffer().get(copy.ints);
+    }
+    return copy;
+  }
+
+  /**
+   * Write the assignments to a channel as little-endian entries of bytesPerEntry() each.
+   * @param channel the channel to write to
+   * @throws IOException if writing fails
+   */
+  void writeTo(WritableByteChannel channel) throws IOException {
+    if (bytes != null) {
+      ByteBuffer whole = ByteBuffer.wrap(bytes);
+      while (whole.hasRemaining()) {
+        channel.write(whole);
+      }
+      return;
+    }
+    ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    for (int i = 0; i < size; i++) {
+      if (buffer.remaining() < 4) {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        buffer.clear();
+      }
+      int c = get(i);
+      if (entryBytes == 1) {
+        buffer.put((byte) c);
+      }
+      else if (entryBytes == 2) {
+        buffer.putChar((char) c);
+      }
+      else {
+        buffer.putInt(c);
+      }
+    }
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Get the number of data points.
+   * @return the number of data points
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the number of bytes used to store a single assignment.
+   * @return 1, 2 or 4
+   */
+  public int bytesPerEntry() {
+    if (mapped != null) {
+      return entryBytes;
+    }
+    if (bytes != null) {
+      return 1;
+    }
+    return chars != null ? 2 : 4;
+  }
+
+  /**
+   * Check whether these assignments are a read-only view, e.g. over a memory-mapped file.
+   * @return true if set is not supported
+   */
+  public boolean isReadOnly() {
+    return mapped != null;
+  }
+
+  /**
+   * Get the cluster of the i-th data point.
+   * @param i the index of the data point
+   * @return the cluster index
+   */
+  public int get(int i) {
+    if (bytes != null) {
+      return bytes[i] & 0xFF;
+    }
+    if (chars != null) {
+      return chars[i];
+    }
+    if (ints != null) {
+      return ints[i];
+    }
+    if (i < 0 || i >= size) {
+      throw new IndexOutOfBoundsException("index " + i + " out of " + size);
+    }
+    if (entryBytes == 1) {
+      return mapped.get(i) & 0xFF;
+    }
+    return entryBytes == 2 ? mapped.getChar(2 * i) : mapped.getInt(4 * i);
+  }
+
+  /**
+   * Assign the i-th data point to a cluster.
+   * @param i the index of the data point
+   * @param c the cluster index
+   * @return true if the assignment changed; false otherwise
+   */
+  public boolean set(int i, int c) throws UnsupportedOperationException {
+    if (mapped != null) {
+      throw new UnsupportedOperationException("these assignments are read-only!");
+    }
+    if (bytes != null) {
+      byte b = (byte) c;
+      if (bytes[i] == b) {
+        return false;
+      }
+      bytes[i] = b;
+      return true;
+    }
+    if (chars != null) {
+      char ch = (char) c;
+      if (chars[i] == ch) {
+        return false;
+      }
+      chars[i] = ch;
+      return true;
+    }
+    if (ints[i] == c) {
+      return false;
+    }
+    ints[i] = c;
+    return true;
+  }
+
+  /**
+   * Return a read-only List view of the assignments, for code that works on Lists.
+   * The view is backed by this object; nothing is copied.
+   * @return the List view
+   */
+  public List<Integer> asList() {
+    return new AbstractList<Integer>() {
+      @Override
+      public Integer get(int index) {
+        if (index < 0 || index >= size) {
+          throw new IndexOutOfBoundsException("index " + index + " out of " + size);
+        }
+        return Assignments.this.get(index);
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+}
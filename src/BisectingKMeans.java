@@ -0,0 +1,472 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * BisectingKMeans clusters by splitting: it splits the data in two with 2-means, then
+ * splits each half in two, and so on, until there are k clusters. Each split only touches the
+ * points of the cluster it splits, so a level of the tree costs O(n) instead of the O(n k) of
+ * a Lloyd iteration over all k centers, and the whole run O(n log k) iterations of 2-means.
+ *
+ * The k clusters are shared out between the two halves of a split up front, in proportion to
+ * the square root of their sums of squared distances to their means: a 2-d cluster cut into
+ * m parts keeps about 1/m of its squared distances, and that allocation minimizes what is
+ * left over all. The halves are then split independently, in parallel on a fork-join pool.
+ * Every split draws from a generator split off its parent's in a fixed order, so a seeded run
+ * gives the same clusters for any number of threads.
+ *
+ * The splits form a ClusterTree, which finds the cluster of a new point in O(log k).
+ * Points that all coincide cannot be split, so there may be fewer than k clusters.
+ */
+public class BisectingKMeans implements Algorithm {
+  // below this many points, the two halves of a split are split on the same thread
+  private static final int FORK_SIZE = 1 << 13;
+
+  private final int k;
+  private int maxIterations;
+  private int parallelism;
+  private long seed;
+  private boolean seeded;
+  private ClusterTree tree;
+  private Assignments cluster;
+
+  /**
+   * Construct a BisectingKMeans object.
+   * @param k the number of clusters (this k is assumed to be > 0)
+   */
+  public BisectingKMeans(int k) throws IllegalArgumentException {
+    if (k <= 0) {
+      throw new IllegalArgumentException("k cannot be non-positive!");
+    }
+    this.k = k;
+    this.maxIterations = 20;
+    this.parallelism = Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * Set the most Lloyd iterations of the 2-means of one split.
+   * @param maxIterations the number of iterations, 20 by default
+   */
+  public void setMaxIterations(int maxIterations) throws IllegalArgumentException {
+    if (maxIterations <= 0) {
+      throw new IllegalArgumentException("at least one iteration is needed!");
+    }
+    this.maxIterations = maxIterations;
+  }
+
+  /**
+   * Set the number of threads that split the subtrees.
+   * @param parallelism the number of threads
+   */
+  public void setParallelism(int parallelism) throws IllegalArgumentException {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism has to be positive!");
+    }
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Seed the choice of the initial centers of every split, so that runs are reproducible.
+   * @param seed the seed
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+    this.seeded = true;
+  }
+
+  /**
+   * Get the tree of splits of the last execution.
+   * @return the tree
+   */
+  public ClusterTree getTree() throws IllegalStateException {
+    if (tree == null) {
+      throw new IllegalStateException("the algorithm has not been executed yet!");
+    }
+    return tree;
+  }
+
+  /**
+   * Get the cluster of every point of the last execution.
+   * @return the cluster assignment
+   */
+  public Assignments getAssignments() {
+    return cluster;
+  }
+
+  /**
+   * Get the clusters of the last execution as a KMeansModel.
+   * @return the model
+   */
+  public KMeansModel getModel() {
+    return getTree().toModel();
+  }
+
+  @Override
+  public void execute(ListOfTuplesImpl data) {
+    execute(data.pack(false));
+  }
+
+  /**
+   * Cluster packed data.
+   * @param data the points
+   */
+  public void execute(PackedTuples data) throws IllegalArgumentException {
+    int n = data.size();
+    if (n < k) {
+      throw new IllegalArgumentException("k cannot exceed the number of data points!");
+    }
+
+    /*
+     * the points are reordered as they are split, so that every cluster is a contiguous range
+     */
+    double[] coords = new double[2 * n];
+    int[] index = new int[n];
+    for (int i = 0; i < n; i++) {
+      coords[2 * i] = data.getX(i);
+      coords[2 * i + 1] = data.getY(i);
+      index[i] = i;
+    }
+    Node root = new Node(0, n, 0, 0);
+    root.measure(coords);
+
+    SplittableRandom random = seeded ? new SplittableRandom(seed) : new SplittableRandom();
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      pool.invoke(new Split(root, k, random, coords, index));
+    } finally {
+      pool.shutdown();
+    }
+
+    /*
+     * number the nodes depth-first, and the leaves from left to right
+     */
+    List<Node> nodes = root.preorder();
+    int count = nodes.size();
+    int[] left = new int[count];
+    int[] right = new int[count];
+    double[] route = new double[2 * count];
+    double[] mean = new double[2 * count];
+    int[] leaf = new int[count];
+    int[] size = new int[count];
+    Assignments assignments = new Assignments(n, k);
+    int leaves = 0;
+    for (Node node : nodes) {
+      leaves = node.flatten(leaves, left, right, route, mean, leaf, size, index, assignments);
+    }
+    tree = new ClusterTree(left, right, route, mean, leaf, size);
+    cluster = assignments;
+  }
+
+  /**
+   * Split a cluster in two with 2-means, if its points are not all the same.
+   * @param node the cluster
+   * @param random the generator of this split
+   * @param coords the reordered points
+   * @param index the original index of every reordered point
+   * @return true if the cluster was split
+   */
+  private boolean bisect(Node node, SplittableRandom random, double[] coords, int[] index) {
+    int from = node.from;
+    int to = node.to;
+    if (to - from < 2) {
+      return false;
+    }
+
+    /*
+     * the first center at random, the second drawn in proportion to the squared distance to
+     * the first, in one pass
+     */
+    int a = from + random.nextInt(to - from);
+    double[] c = {coords[2 * a], coords[2 * a + 1], 0, 0};
+    double total = 0;
+    int b = -1;
+    for (int i = from; i < to; i++) {
+      double dist = squared(coords, i, c[0], c[1]);
+      if (dist > 0) {
+        total += dist;
+        if (random.nextDouble() * total < dist) {
+          b = i;
+        }
+      }
+    }
+    if (b < 0) {
+      return false;
+    }
+    c[2] = coords[2 * b];
+    c[3] = coords[2 * b + 1];
+
+    for (int iteration = 0; iteration < maxIterations; iteration++) {
+      double[] sum = new double[4];
+      int second = 0;
+      for (int i = from; i < to; i++) {
+        double x = coords[2 * i];
+        double y = coords[2 * i + 1];
+        int side = squared(coords, i, c[2], c[3]) < squared(coords, i, c[0], c[1]) ? 1 : 0;
+        sum[2 * side] += x;
+        sum[2 * side + 1] += y;
+        second += side;
+      }
+      int first = to - from - second;
+      if (first == 0 || second == 0) {
+        break;
+      }
+      double[] moved = {sum[0] / first, sum[1] / first, sum[2] / second, sum[3] / second};
+      boolean same = true;
+      for (int j = 0; j < 4; j++) {
+        same &= moved[j] == c[j];
+      }
+      c = moved;
+      if (same) {
+        break;
+      }
+    }
+
+    /*
+     * move the points closer to the first center to the front
+     */
+    int i = from;
+    int j = to - 1;
+    while (i <= j) {
+      if (squared(coords, i, c[2], c[3]) < squared(coords, i, c[0], c[1])) {
+        swap(coords, index, i, j);
+        j--;
+      }
+      else {
+        i++;
+      }
+    }
+    if (i == from || i == to) {
+      return false;
+    }
+    node.left = new Node(from, i, c[0], c[1]);
+    node.right = new Node(i, to, c[2], c[3]);
+    node.left.measure(coords);
+    node.right.measure(coords);
+    return true;
+  }
+
+  /**
+   * The squared distance of a reordered point to a center.
+   * @param coords the reordered points
+   * @param i the index of the point
+   * @param x the x coordinate of the center
+   * @param y the y coordinate of the center
+   * @return the squared distance
+   */
+  private static double squared(double[] coords, int i, double x, double y) {
+    double diffX = coords[2 * i] - x;
+    double diffY = coords[2 * i + 1] - y;
+    return diffX * diffX + diffY * diffY;
+  }
+
+  /**
+   * Swap two reordered points.
+   * @param coords the reordered points
+   * @param index the original index of every reordered point
+   * @param i the first point
+   * @param j the second point
+   */
+  private static void swap(double[] coords, int[] index, int i, int j) {
+    double x = coords[2 * i];
+    double y = coords[2 * i + 1];
+    coords[2 * i] = coords[2 * j];
+    coords[2 * i + 1] = coords[2 * j + 1];
+    coords[2 * j] = x;
+    coords[2 * j + 1] = y;
+    int t = index[i];
+    index[i] = index[j];
+    index[j] = t;
+  }
+
+  /**
+   * Split splits a cluster into a given number of clusters, forking for large halves.
+   */
+  private final class Split extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final Node node;
+    private final int budget;
+    private final SplittableRandom random;
+    private final double[] coords;
+    private final int[] index;
+
+    /**
+     * Construct a Split task.
+     * @param node the cluster to split
+     * @param budget the number of clusters to split it into
+     * @param random the generator of this subtree
+     * @param coords the reordered points
+     * @param index the original index of every reordered point
+     */
+    Split(Node node, int budget, SplittableRandom random, double[] coords, int[] index) {
+      this.node = node;
+      this.budget = budget;
+      this.random = random;
+      this.coords = coords;
+      this.index = index;
+    }
+
+    @Override
+    protected void compute() {
+      /*
+       * split the subtree with a stack of its own instead of recursing, since skewed data can
+       * make the tree as deep as k; the smaller half of a large split goes to another thread,
+       * so a chain of forked tasks at least halves the points every time
+       */
+      ArrayDeque<Split> stack = new ArrayDeque<Split>();
+      List<Split> forked = new ArrayList<Split>();
+      stack.push(this);
+      while (!stack.isEmpty()) {
+        Split split = stack.pop();
+        Node node = split.node;
+        int budget = split.budget;
+        if (budget < 2 || !bisect(node, split.random, coords, index)) {
+          continue;
+        }
+        Node l = node.left;
+        Node r = node.right;
+        double spreadL = Math.sqrt(l.sse);
+        double spreadR = Math.sqrt(r.sse);
+        double share = spreadL + spreadR > 0 ? spreadL / (spreadL + spreadR)
+                : (double) l.size() / node.size();
+        int budgetL = (int) Math.round(budget * share);
+        budgetL = Math.max(budgetL, Math.max(1, budget - r.size()));
+        budgetL = Math.min(budgetL, Math.min(budget - 1, l.size()));
+
+        // split in this order whatever the thread, so the result only depends on the seed
+        Split splitL = new Split(l, budgetL, split.random.split(), coords, index);
+        Split splitR = new Split(r, budget - budgetL, split.random.split(), coords, index);
+        Split smaller = l.size() <= r.size() ? splitL : splitR;
+        if (node.size() > FORK_SIZE) {
+          smaller.fork();
+          forked.add(smaller);
+        }
+        else {
+          stack.push(smaller);
+        }
+        stack.push(smaller == splitL ? splitR : splitL);
+      }
+      for (Split split : forked) {
+        split.join();
+      }
+    }
+  }
+
+  /**
+   * Node is a cluster of the tree while it is being built: a range of the reordered points.
+   */
+  private static final class Node {
+    private final int from;
+    private final int to;
+    private final double routeX;
+    private final double routeY;
+    private double meanX;
+    private double meanY;
+    private double sse;
+    private Node left;
+    private Node right;
+    // the number of the node in the flat arrays
+    private int number;
+
+    /**
+     * Construct a Node.
+     * @param from the first point
+     * @param to the point after the last
+     * @param routeX the x coordinate of the center it was split off by
+     * @param routeY the y coordinate of the center it was split off by
+     */
+    Node(int from, int to, double routeX, double routeY) {
+      this.from = from;
+      this.to = to;
+      this.routeX = routeX;
+      this.routeY = routeY;
+    }
+
+    /**
+     * Get the number of points.
+     * @return the number of points
+     */
+    int size() {
+      return to - from;
+    }
+
+    /**
+     * Compute the mean of the points, and the sum of their squared distances to it.
+     * @param coords the reordered points
+     */
+    void measure(double[] coords) {
+      double sumX = 0;
+      double sumY = 0;
+      for (int i = from; i < to; i++) {
+        sumX += coords[2 * i];
+        sumY += coords[2 * i + 1];
+      }
+      meanX = sumX / size();
+      meanY = sumY / size();
+      sse = 0;
+      for (int i = from; i < to; i++) {
+        sse += squared(coords, i, meanX, meanY);
+      }
+    }
+
+    /**
+     * List the nodes of the subtree depth-first, and number them in that order.
+     * @return the nodes, this one first
+     */
+    List<Node> preorder() {
+      List<Node> order = new ArrayList<Node>();
+      ArrayDeque<Node> stack = new ArrayDeque<Node>();
+      stack.push(this);
+      while (!stack.isEmpty()) {
+        Node node = stack.pop();
+        node.number = order.size();
+        order.add(node);
+        if (node.left != null) {
+          stack.push(node.right);
+          stack.push(node.left);
+        }
+      }
+      return order;
+    }
+
+    /**
+     * Write this node into the flat arrays of a ClusterTree, once every node is numbered,
+     * and assign the points if it is a leaf.
+     * @param leaves the number of leaves written so far
+     * @param left the left child of every node
+     * @param right the right child of every node
+     * @param route the interleaved split centers
+     * @param mean the interleaved means
+     * @param leaf the cluster of every leaf
+     * @param size the number of points of every node
+     * @param index the original index of every reordered point
+     * @param assignments where to assign the points
+     * @return the number of leaves written, with this node
+     */
+    int flatten(int leaves, int[] left, int[] right, double[] route, double[] mean,
+                int[] leaf, int[] size, int[] index, Assignments assignments) {
+      int node = number;
+      route[2 * node] = routeX;
+      route[2 * node + 1] = routeY;
+      mean[2 * node] = meanX;
+      mean[2 * node + 1] = meanY;
+      size[node] = size();
+      if (this.left != null) {
+        leaf[node] = -1;
+        left[node] = this.left.number;
+        right[node] = this.right.number;
+        return leaves;
+      }
+      left[node] = -1;
+      right[node] = -1;
+      leaf[node] = leaves;
+      for (int i = from; i < to; i++) {
+        assignments.set(index[i], leaves);
+      }
+      return leaves + 1;
+    }
+  }
+
+}
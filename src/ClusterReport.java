@@ -0,0 +1,136 @@
+import java.util.Arrays;
+
+/**
+ * ClusterReport checks a clustering and measures its quality in one pass over the data:
+ * the inertia (the sum of the squared distances of the points to their centers), the size
+ * and radius of every cluster, the empty clusters, and the number of points that are not
+ * assigned to their closest center.
+ *
+ * It is a TupleAggregator, so FusedScan computes it in parallel, or together with other
+ * aggregators. The closest centers are found in the precision of the data, like KMeansImpl
+ * does, so near-ties are not reported as mismatches.
+ */
+public final class ClusterReport implements TupleAggregator<ClusterReport> {
+  private final double[] center;
+  private final float[] centerF;
+  private final Assignments cluster;
+  private final long[] size;
+  private final double[] radius;
+  private double inertia;
+  private long mismatches;
+
+  /**
+   * Construct an empty ClusterReport.
+   * @param center the interleaved x- and y-coordinates of the centers; not copied
+   * @param cluster the assignments to check
+   */
+  public ClusterReport(double[] center, Assignments cluster) {
+    this.center = center;
+    this.centerF = new float[center.length];
+    for (int i = 0; i < center.length; i++) {
+      centerF[i] = (float) center[i];
+    }
+    this.cluster = cluster;
+    this.size = new long[center.length / 2];
+    this.radius = new double[center.length / 2];
+  }
+
+  @Override
+  public ClusterReport empty() {
+    return new ClusterReport(center, cluster);
+  }
+
+  @Override
+  public void accumulate(PackedTuples data, int start, int end) {
+    float[] coordsF = data.floats();
+    for (int i = start; i < end; i++) {
+      int c = cluster.get(i);
+      int closest = coordsF != null
+              ? KMeansImpl.nearest(coordsF[2 * i], coordsF[2 * i + 1], centerF)
+              : KMeansImpl.nearest(data.getX(i), data.getY(i), center);
+      if (closest != c) {
+        mismatches++;
+      }
+      double diffX = data.getX(i) - center[2 * c];
+      double diffY = data.getY(i) - center[2 * c + 1];
+      double squared = diffX * diffX + diffY * diffY;
+      inertia += data.getWeight(i) * squared;
+      size[c]++;
+      radius[c] = Math.max(radius[c], squared);
+    }
+  }
+
+  @Override
+  public void combine(ClusterReport other) {
+    for (int c = 0; c < size.length; c++) {
+      size[c] += other.size[c];
+      radius[c] = Math.max(radius[c], other.radius[c]);
+    }
+    inertia += other.inertia;
+    mismatches += other.mismatches;
+  }
+
+  /**
+   * Check whether every point is assigned to its closest center.
+   * @return true if the assignment is correct; false otherwise
+   */
+  public boolean isValid() {
+    return mismatches == 0;
+  }
+
+  /**
+   * Get the number of points that are not assigned to their closest center.
+   * @return the number of mismatches
+   */
+  public long getMismatches() {
+    return mismatches;
+  }
+
+  /**
+   * Get the sum of the (weighted) squared distances of the points to their centers.
+   * @return the inertia
+   */
+  public double getInertia() {
+    return inertia;
+  }
+
+  /**
+   * Get the number of points of a cluster.
+   * @param c the index of the cluster
+   * @return the number of points
+   */
+  public long getSize(int c) {
+    return size[c];
+  }
+
+  /**
+   * Get the largest distance of a point of a cluster to its center.
+   * @param c the index of the cluster
+   * @return the radius, 0 for an empty cluster
+   */
+  public double getRadius(int c) {
+    return Math.sqrt(radius[c]);
+  }
+
+  /**
+   * Get the clusters without any points.
+   * @return the indices of the empty clusters
+   */
+  public int[] getEmptyClusters() {
+    int[] empty = new int[size.length];
+    int count = 0;
+    for (int c = 0; c < size.length; c++) {
+      if (size[c] == 0) {
+        empty[count++] = c;
+      }
+    }
+    return Arrays.copyOf(empty, count);
+  }
+
+  @Override
+  public String toString() {
+    return "k=" + size.length + " inertia=" + inertia + " empty="
+            + Arrays.toString(getEmptyClusters()) + " mismatches=" + mismatches;
+  }
+
+}
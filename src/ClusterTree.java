@@ -0,0 +1,164 @@
+/**
+ * ClusterTree is the tree of splits that BisectingKMeans built: every inner node split its
+ * points between two centers, and every leaf is a cluster.
+ *
+ * A point finds its cluster by walking down from the root, at every node going to the side
+ * whose split center is closer - the same decisions that assigned the training points. That
+ * takes O(log k) distance computations on a balanced tree, instead of one per center. It is
+ * not always the overall closest center: for that, use toModel.
+ *
+ * The tree is immutable, and queries do not allocate.
+ */
+public final class ClusterTree {
+
+  /*
+   * the nodes, one entry per node in each array; node 0 is the root
+   */
+  private final int[] left;
+  private final int[] right;
+  // the center a node's points were split off its sibling's by
+  private final double[] route;
+  // the mean of a node's points
+  private final double[] mean;
+  // for a leaf its cluster, -1 for an inner node
+  private final int[] cluster;
+  private final int[] size;
+  // the leaf of every cluster
+  private final int[] leafOf;
+  private final int k;
+  private final int depth;
+
+  /**
+   * Construct a ClusterTree from flat node arrays.
+   * @param left the left child of every node, -1 for a leaf
+   * @param right the right child of every node, -1 for a leaf
+   * @param route the interleaved split centers of the nodes
+   * @param mean the interleaved means of the nodes
+   * @param cluster the cluster of every leaf, numbered from 0, and -1 for inner nodes
+   * @param size the number of points of every node
+   */
+  ClusterTree(int[] left, int[] right, double[] route, double[] mean, int[] cluster,
+              int[] size) {
+    this.left = left;
+    this.right = right;
+    this.route = route;
+    this.mean = mean;
+    this.cluster = cluster;
+    this.size = size;
+    int leaves = 0;
+    for (int c : cluster) {
+      if (c >= 0) {
+        leaves++;
+      }
+    }
+    this.k = leaves;
+    this.leafOf = new int[leaves];
+    for (int node = 0; node < cluster.length; node++) {
+      if (cluster[node] >= 0) {
+        leafOf[cluster[node]] = node;
+      }
+    }
+    this.depth = depth();
+  }
+
+  /**
+   * The depth of the tree, walked with a stack rather than recursion: a tree split off
+   * skewed data can be as deep as it has leaves.
+   * @return the number of nodes on the longest path from the root down
+   */
+  private int depth() {
+    int[] stack = new int[left.length];
+    int[] level = new int[left.length];
+    int top = 1;
+    level[0] = 1;
+    int deepest = 0;
+    while (top > 0) {
+      top--;
+      int node = stack[top];
+      int d = level[top];
+      deepest = Math.max(deepest, d);
+      if (left[node] >= 0) {
+        stack[top] = left[node];
+        level[top++] = d + 1;
+        stack[top] = right[node];
+        level[top++] = d + 1;
+      }
+    }
+    return deepest;
+  }
+
+  /**
+   * Get the number of clusters.
+   * @return the number of leaves
+   */
+  public int getK() {
+    return k;
+  }
+
+  /**
+   * Get the depth of the tree.
+   * @return the number of nodes on the longest path from the root to a leaf
+   */
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * Find the cluster of a point by walking down the tree.
+   * @param x the x coordinate of the point
+   * @param y the y coordinate of the point
+   * @return the index of the cluster
+   */
+  public int nearest(double x, double y) {
+    int node = 0;
+    while (left[node] >= 0) {
+      int l = left[node];
+      int r = right[node];
+      double diffX = x - route[2 * l];
+      double diffY = y - route[2 * l + 1];
+      double toLeft = diffX * diffX + diffY * diffY;
+      diffX = x - route[2 * r];
+      diffY = y - route[2 * r + 1];
+      // ties go left, like the split did
+      node = diffX * diffX + diffY * diffY < toLeft ? r : l;
+    }
+    return cluster[node];
+  }
+
+  /**
+   * Get the centers of the clusters: the means of their points.
+   * @return the interleaved x- and y-coordinates, indexed by cluster
+   */
+  public double[] getCenters() {
+    double[] center = new double[2 * k];
+    for (int node = 0; node < cluster.length; node++) {
+      int c = cluster[node];
+      if (c >= 0) {
+        center[2 * c] = mean[2 * node];
+        center[2 * c + 1] = mean[2 * node + 1];
+      }
+    }
+    return center;
+  }
+
+  /**
+   * Get the number of training points of a cluster.
+   * @param c the index of the cluster
+   * @return the number of points
+   */
+  public int getSize(int c) {
+    if (c < 0 || c >= k) {
+      throw new IllegalArgumentException("no cluster " + c + "!");
+    }
+    return size[leafOf[c]];
+  }
+
+  /**
+   * Turn the clusters into a KMeansModel, which always assigns the closest center.
+   * @return the model
+   */
+  public KMeansModel toModel() {
+    return new KMeansModel(getCenters());
+  }
+
+}
@@ -0,0 +1,409 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * DataGenerator produces synthetic data for scale and load testing: Gaussian blobs for
+ * k-means, or points scattered around a line for linear regression.
+ *
+ * The data is generated in fixed-size blocks on several threads, each block from its own
+ * generator split off a seeded SplittableRandom, so the output only depends on the seed -
+ * never on the number of threads. Files are written block by block, so their size is not
+ * limited by memory: the text format of data/ is written in order, and TupleFiles are written
+ * in parallel at each block's own position.
+ */
+public class DataGenerator {
+  private static final int BLOCK_SIZE = 1 << 20;
+
+  private final long seed;
+  private int threads;
+  // for blobs: the interleaved blob centers; null for a line
+  private double[] blobs;
+  private double spread;
+  private double slope;
+  private double intercept;
+  private double noise;
+  private double xmin;
+  private double xmax;
+
+  /**
+   * Construct a DataGenerator object that produces data like data/clusterdata-2.txt,
+   * until it is set to produce other shapes.
+   * @param seed the random seed
+   */
+  public DataGenerator(long seed) {
+    this.seed = seed;
+    this.threads = Runtime.getRuntime().availableProcessors();
+    setClusters(2, 40);
+  }
+
+  /**
+   * Produce k Gaussian blobs, with centers spread uniformly over [-400, 400] in both coordinates.
+   * @param k the number of blobs
+   * @param spread the standard deviation of each blob
+   */
+  public void setClusters(int k, double spread) throws IllegalArgumentException {
+    if (k <= 0 || spread < 0) {
+      throw new IllegalArgumentException("k has to be positive and spread non-negative!");
+    }
+    SplittableRandom random = new SplittableRandom(seed);
+    blobs = new double[2 * k];
+    for (int j = 0; j < 2 * k; j++) {
+      blobs[j] = random.nextDouble(-400, 400);
+    }
+    this.spread = spread;
+  }
+
+  /**
+   * Produce points around y = slope * x + intercept, with x uniform over [xmin, xmax].
+   * @param slope the slope of the line
+   * @param intercept the intercept of the line
+   * @param noise the standard deviation of y around the line
+   * @param xmin the smallest x
+   * @param xmax the largest x
+   */
+  public void setLine(double slope, double intercept, double noise, double xmin, double xmax)
+          throws IllegalArgumentException {
+    if (noise < 0 || xmax < xmin) {
+      throw new IllegalArgumentException("noise has to be non-negative and xmin <= xmax!");
+    }
+    this.blobs = null;
+    this.slope = slope;
+    this.intercept = intercept;
+    this.noise = noise;
+    this.xmin = xmin;
+    this.xmax = xmax;
+  }
+
+  /**
+   * Set the number of threads generating data. This does not change the data produced.
+   * @param threads the number of threads
+   */
+  public void setThreads(int threads) throws IllegalArgumentException {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("threads has to be positive!");
+    }
+    this.threads = threads;
+  }
+
+  /**
+   * Generate data in memory.
+   * @param n the number of points
+   * @param singlePrecision whether to store the coordinates as floats
+   * @return the points
+   */
+  public PackedTuples generate(int n, boolean singlePrecision) {
+    double[] coords = new double[2 * n];
+    SplittableRandom[] randoms = blockRandoms(n);
+    try {
+      runBlocks(randoms.length, b -> {
+        int from = b * BLOCK_SIZE;
+        int to = (int) Math.min(n, (long) from + BLOCK_SIZE);
+        fill(randoms[b], coords, from, to);
+        return null;
+      });
+    } catch (IOException e) {
+      // nothing is written here
+      throw new IllegalStateException(e);
+    }
+
+    if (!singlePrecision) {
+      return new PackedTuples(coords);
+    }
+    float[] coordsF = new float[2 * n];
+    for (int i = 0; i < coordsF.length; i++) {
+      coordsF[i] = (float) coords[i];
+    }
+    return new PackedTuples(coordsF);
+  }
+
+  /**
+   * Write data as a TupleFile, each block at its own position in parallel.
+   * @param path the path of the file
+   * @param n the number of points
+   * @param singlePrecision whether to store the coordinates as floats
+   * @throws IOException if the file cannot be written
+   */
+  public void writeBinary(String path, long n, boolean singlePrecision) throws IOException {
+    int bytesPerCoord = singlePrecision ? 4 : 8;
+    SplittableRandom[] randoms = blockRandoms(n);
+    try (FileChannel out = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer header = ByteBuffer.allocate(TupleFile.HEADER_BYTES)
+              .order(ByteOrder.LITTLE_ENDIAN);
+      TupleFile.writeHeader(header, n, singlePrecision);
+      header.flip();
+      TupleFile.writeFully(out, header);
+
+      ThreadLocal<double[]> coordsBuffers =
+          ThreadLocal.withInitial(() -> new double[2 * BLOCK_SIZE]);
+      ThreadLocal<ByteBuffer> byteBuffers = ThreadLocal.withInitial(() ->
+          ByteBuffer.allocateDirect(2 * BLOCK_SIZE * bytesPerCoord)
+                  .order(ByteOrder.LITTLE_ENDIAN));
+      runBlocks(randoms.length, b -> {
+        long from = (long) b * BLOCK_SIZE;
+        int count = (int) Math.min(BLOCK_SIZE, n - from);
+        double[] coords = coordsBuffers.get();
+        fill(randoms[b], coords, 0, count);
+
+        ByteBuffer bytes = byteBuffers.get();
+        bytes.clear();
+        for (int i = 0; i < 2 * count; i++) {
+          if (singlePrecision) {
+            bytes.putFloat((float) coords[i]);
+          }
+          else {
+            bytes.putDouble(coords[i]);
+          }
+        }
+        bytes.flip();
+        long position = TupleFile.HEADER_BYTES + from * 2 * bytesPerCoord;
+        while (bytes.hasRemaining()) {
+          position += out.write(bytes, position);
+        }
+        return null;
+      });
+    }
+  }
+
+  /**
+   * Write data in the text format of data/: one "x y" line per point, two decimals each.
+   * Blocks are formatted in parallel and written in order, with a bounded number in flight.
+   * @param path the path of the file
+   * @param n the number of points
+   * @throws IOException if the file cannot be written
+   */
+  public void writeText(String path, long n) throws IOException {
+    SplittableRandom[] randoms = blockRandoms(n);
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try (FileChannel out = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      Deque<Future<ByteBuffer>> pending = new ArrayDeque<Future<ByteBuffer>>();
+      int next = 0;
+      while (next < randoms.length || !pending.isEmpty()) {
+        while (next < randoms.length && pending.size() < 2 * threads) {
+          int b = next++;
+          pending.add(pool.submit(() -> formatBlock(randoms[b],
+                  (int) Math.min(BLOCK_SIZE, n - (long) b * BLOCK_SIZE))));
+        }
+        TupleFile.writeFully(out, await(pending.poll()));
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Generate one block and format it as text.
+   * @param random the generator of the block
+   * @param count the number of points
+   * @return the formatted block, ready to be written
+   */
+  private ByteBuffer formatBlock(SplittableRandom random, int count) {
+    double[] coords = new double[2 * count];
+    fill(random, coords, 0, count);
+    // sign, 16 digits, point, 2 decimals, for x and y, plus a space and a newline
+    ByteBuffer text = ByteBuffer.allocate(count * 44);
+    for (int i = 0; i < count; i++) {
+      appendFixed(text, coords[2 * i]);
+      text.put((byte) ' ');
+      appendFixed(text, coords[2 * i + 1]);
+      text.put((byte) '\n');
+    }
+    text.flip();
+    return text;
+  }
+
+  /**
+   * Append a number with two decimals, without going through String.format.
+   * @param text the buffer to append to
+   * @param value the number
+   */
+  private static void appendFixed(ByteBuffer text, double value) {
+    long hundredths = Math.round(Math.abs(value) * 100);
+    if (value < 0 && hundredths != 0) {
+      text.put((byte) '-');
+    }
+    long whole = hundredths / 100;
+    int start = text.position();
+    do {
+      text.put((byte) ('0' + whole % 10));
+      whole /= 10;
+    } while (whole > 0);
+    // the digits came out backwards
+    for (int i = start, j = text.position() - 1; i < j; i++, j--) {
+      byte t = text.get(i);
+      text.put(i, text.get(j));
+      text.put(j, t);
+    }
+    int fraction = (int) (hundredths % 100);
+    text.put((byte) '.');
+    text.put((byte) ('0' + fraction / 10));
+    text.put((byte) ('0' + fraction % 10));
+  }
+
+  /**
+   * Generate points into an array.
+   * @param random the generator of the block
+   * @param coords the interleaved coordinates to fill
+   * @param from the first point to fill in coords
+   * @param to one past the last point to fill in coords
+   */
+  private void fill(SplittableRandom random, double[] coords, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (blobs != null) {
+        int j = random.nextInt(blobs.length / 2);
+        coords[2 * i] = blobs[2 * j] + spread * gaussian(random);
+        coords[2 * i + 1] = blobs[2 * j + 1] + spread * gaussian(random);
+      }
+      else {
+        double x = xmax > xmin ? random.nextDouble(xmin, xmax) : xmin;
+        coords[2 * i] = x;
+        coords[2 * i + 1] = slope * x + intercept + noise * gaussian(random);
+      }
+    }
+  }
+
+  /**
+   * Draw a standard normal number (Marsaglia's polar method).
+   * @param random the generator to draw from
+   * @return the number
+   */
+  private static double gaussian(SplittableRandom random) {
+    double u;
+    double v;
+    double s;
+    do {
+      u = random.nextDouble(-1, 1);
+      v = random.nextDouble(-1, 1);
+      s = u * u + v * v;
+    } while (s >= 1 || s == 0);
+    return u * Math.sqrt(-2 * Math.log(s) / s);
+  }
+
+  /**
+   * Split one generator per block off the seed, in block order.
+   * @param n the number of points
+   * @return the generators
+   */
+  private SplittableRandom[] blockRandoms(long n) throws IllegalArgumentException {
+    if (n < 0) {
+      throw new IllegalArgumentException("n cannot be negative!");
+    }
+    long blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    if (blocks > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("too many points!");
+    }
+    // a different stream than the one the blob centers came from
+    SplittableRandom root = new SplittableRandom(seed ^ 0x9E3779B97F4A7C15L);
+    SplittableRandom[] randoms = new SplittableRandom[(int) blocks];
+    for (int b = 0; b < randoms.length; b++) {
+      randoms[b] = root.split();
+    }
+    return randoms;
+  }
+
+  /**
+   * A task working on one block.
+   */
+  private interface BlockTask {
+    /**
+     * Work on a block.
+     * @param block the index of the block
+     * @return nothing
+     * @throws IOException if writing the block fails
+     */
+    Void run(int block) throws IOException;
+  }
+
+  /**
+   * Run a task for every block on the generator's threads and wait for all of them.
+   * @param blocks the number of blocks
+   * @param task the task
+   * @throws IOException if a task fails to write
+   */
+  private void runBlocks(int blocks, BlockTask task) throws IOException {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      Deque<Future<Void>> pending = new ArrayDeque<Future<Void>>();
+      for (int b = 0; b < blocks; b++) {
+        int block = b;
+        pending.add(pool.submit(() -> task.run(block)));
+      }
+      while (!pending.isEmpty()) {
+        await(pending.poll());
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Wait for a block.
+   * @param future the pending block
+   * @param <T> the result type of the block
+   * @return the result of the block
+   * @throws IOException if the block failed
+   */
+  private static <T> T await(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while generating data", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Main method. Generate a data file.
+   * Usage: java DataGenerator cluster|line n file.txt|file.bin [k] [seed] [float]
+   * @param args the arguments above; files ending in .bin are written as TupleFiles
+   * @throws IOException if the file cannot be written
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 3) {
+      System.out.println("usage: java DataGenerator cluster|line n file.txt|file.bin "
+              + "[k] [seed] [float]");
+      return;
+    }
+    long n = Long.parseLong(args[1]);
+    String path = args[2];
+    int k = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+    long seed = args.length > 4 ? Long.parseLong(args[4]) : 0;
+    boolean singlePrecision = args.length > 5 && args[5].equals("float");
+
+    DataGenerator generator = new DataGenerator(seed);
+    if (args[0].equals("line")) {
+      generator.setLine(0.8, 50, 15, -400, 400);
+    }
+    else {
+      generator.setClusters(k, 40);
+    }
+
+    long start = System.nanoTime();
+    if (path.endsWith(".bin")) {
+      generator.writeBinary(path, n, singlePrecision);
+    }
+    else {
+      generator.writeText(path, n);
+    }
+    System.out.println("wrote " + n + " points to " + path + " in "
+            + (System.nanoTime() - start) / 1000000 + " ms");
+  }
+
+}
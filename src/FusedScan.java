@@ -0,0 +1,354 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * FusedScan is a visitor that computes several TupleAggregators in a single pass over the
+ * data, instead of one pass per algorithm: e.g. the line fit, the bounds for the plot and a
+ * histogram, or the sums of a k-means step.
+ *
+ * The points are visited in blocks small enough to stay in the cache, and every aggregator
+ * takes its turn on a block before the next one is loaded, so the data comes from memory
+ * once. With parallelism, the data is split into ranges that threads scan with empty copies
+ * of the aggregators; the copies are combined in order, so the result does not depend on
+ * thread timing. The scan runs on PackedTuples; a ListOfTuplesImpl is packed into a copy
+ * first.
+ */
+public class FusedScan implements Algorithm {
+  // the points of a block, 64 KB of double precision coordinates
+  private static final int BLOCK = 4096;
+
+  private final List<TupleAggregator<?>> aggregators;
+  private int parallelism;
+
+  /**
+   * Construct a FusedScan object without aggregators, running on this thread.
+   */
+  public FusedScan() {
+    this.aggregators = new ArrayList<TupleAggregator<?>>();
+    this.parallelism = 1;
+  }
+
+  /**
+   * Add an aggregator to compute in the scan. Its results accumulate over executions.
+   * @param aggregator the aggregator
+   * @return this FusedScan
+   */
+  public FusedScan add(TupleAggregator<?> aggregator) {
+    aggregators.add(aggregator);
+    return this;
+  }
+
+  /**
+   * Set the number of threads that share the scan.
+   * @param parallelism the number of threads
+   */
+  public void setParallelism(int parallelism) throws IllegalArgumentException {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism has to be positive!");
+    }
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Run every aggregator over the list. The aggregators read packed ranges, so this packs a
+   * copy of the list first: an extra pass over it and an array of all the points. To scan the
+   * same data more than once, pack it once with data.pack and use execute(PackedTuples).
+   * @param data the points
+   */
+  @Override
+  public void execute(ListOfTuplesImpl data) {
+    execute(data.pack(false));
+  }
+
+  /**
+   * Run every aggregator over packed data, in one pass.
+   * @param data the points
+   */
+  public void execute(PackedTuples data) throws IllegalStateException {
+    int n = data.size();
+    int parts = Math.min(parallelism, Math.max(1, n / (4 * BLOCK)));
+    if (parts == 1) {
+      scan(aggregators, data, 0, n);
+      return;
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(parts);
+    try {
+      List<Future<List<TupleAggregator<?>>>> partials =
+              new ArrayList<Future<List<TupleAggregator<?>>>>();
+      for (int p = 0; p < parts; p++) {
+        int start = (int) ((long) n * p / parts);
+        int end = (int) ((long) n * (p + 1) / parts);
+        partials.add(pool.submit(() -> {
+          List<TupleAggregator<?>> copies = new ArrayList<TupleAggregator<?>>();
+          for (TupleAggregator<?> aggregator : aggregators) {
+            copies.add(aggregator.empty());
+          }
+          scan(copies, data, start, end);
+          return copies;
+        }));
+      }
+      for (Future<List<TupleAggregator<?>>> partial : partials) {
+        List<TupleAggregator<?>> copies = partial.get();
+        for (int a = 0; a < aggregators.size(); a++) {
+          combine(aggregators.get(a), copies.get(a));
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while scanning", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("scanning a range of points failed", e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Scan a range of points block by block, giving every aggregator each block in turn.
+   * @param aggregators the aggregators
+   * @param data the points
+   * @param start the first point
+   * @param end the point after the last
+   */
+  private static void scan(List<TupleAggregator<?>> aggregators, PackedTuples data, int start,
+                           int end) {
+    for (int from = start; from < end; from += BLOCK) {
+      int to = Math.min(end, from + BLOCK);
+      for (TupleAggregator<?> aggregator : aggregators) {
+        aggregator.accumulate(data, from, to);
+      }
+    }
+  }
+
+  /**
+   * Combine a copy made by empty into its original.
+   * @param original the original aggregator
+   * @param copy the copy
+   * @param <A> the type of the aggregator
+   */
+  @SuppressWarnings("unchecked")
+  private static <A extends TupleAggregator<A>> void combine(TupleAggregator<A> original,
+                                                             TupleAggregator<?> copy) {
+    original.combine((A) copy);
+  }
+
+  /**
+   * Bounds is the bounding box of the data: the smallest and largest x and y.
+   * Without any points the bounds are empty, with the minima above the maxima.
+   */
+  public static final class Bounds implements TupleAggregator<Bounds> {
+    private double minX = Double.POSITIVE_INFINITY;
+    private double maxX = Double.NEGATIVE_INFINITY;
+    private double minY = Double.POSITIVE_INFINITY;
+    private double maxY = Double.NEGATIVE_INFINITY;
+
+    @Override
+    public Bounds empty() {
+      return new Bounds();
+    }
+
+    @Override
+    public void accumulate(PackedTuples data, int start, int end) {
+      for (int i = start; i < end; i++) {
+        double x = data.getX(i);
+        double y = data.getY(i);
+        minX = Math.min(minX, x);
+        maxX = Math.max(maxX, x);
+        minY = Math.min(minY, y);
+        maxY = Math.max(maxY, y);
+      }
+    }
+
+    @Override
+    public void combine(Bounds other) {
+      minX = Math.min(minX, other.minX);
+      maxX = Math.max(maxX, other.maxX);
+      minY = Math.min(minY, other.minY);
+      maxY = Math.max(maxY, other.maxY);
+    }
+
+    /**
+     * Get the smallest x.
+     * @return the minimum of x
+     */
+    public double getMinX() {
+      return minX;
+    }
+
+    /**
+     * Get the largest x.
+     * @return the maximum of x
+     */
+    public double getMaxX() {
+      return maxX;
+    }
+
+    /**
+     * Get the smallest y.
+     * @return the minimum of y
+     */
+    public double getMinY() {
+      return minY;
+    }
+
+    /**
+     * Get the largest y.
+     * @return the maximum of y
+     */
+    public double getMaxY() {
+      return maxY;
+    }
+  }
+
+  /**
+   * Histogram counts the (weighted) points in the cells of a regular grid over a rectangle.
+   * Points outside the rectangle are only counted in total.
+   */
+  public static final class Histogram implements TupleAggregator<Histogram> {
+    private final double minX;
+    private final double minY;
+    private final double cellWidth;
+    private final double cellHeight;
+    private final int columns;
+    private final int rows;
+    // row-major, indexed by row * columns + column
+    private final double[] counts;
+    private double outside;
+
+    /**
+     * Construct an empty Histogram.
+     * @param minX the left edge of the grid
+     * @param maxX the right edge of the grid
+     * @param minY the bottom edge of the grid
+     * @param maxY the top edge of the grid
+     * @param columns the number of cells along x
+     * @param rows the number of cells along y
+     */
+    public Histogram(double minX, double maxX, double minY, double maxY, int columns, int rows)
+            throws IllegalArgumentException {
+      if (!(maxX > minX && maxY > minY) || columns <= 0 || rows <= 0) {
+        throw new IllegalArgumentException("need a non-empty rectangle and at least one cell!");
+      }
+      this.minX = minX;
+      this.minY = minY;
+      this.cellWidth = (maxX - minX) / columns;
+      this.cellHeight = (maxY - minY) / rows;
+      this.columns = columns;
+      this.rows = rows;
+      this.counts = new double[columns * rows];
+    }
+
+    @Override
+    public Histogram empty() {
+      return new Histogram(minX, minX + cellWidth * columns, minY, minY + cellHeight * rows,
+              columns, rows);
+    }
+
+    @Override
+    public void accumulate(PackedTuples data, int start, int end) {
+      for (int i = start; i < end; i++) {
+        double column = Math.floor((data.getX(i) - minX) / cellWidth);
+        double row = Math.floor((data.getY(i) - minY) / cellHeight);
+        // the top and right edges belong to the last cells
+        if (column == columns && data.getX(i) == minX + cellWidth * columns) {
+          column--;
+        }
+        if (row == rows && data.getY(i) == minY + cellHeight * rows) {
+          row--;
+        }
+        if (column >= 0 && column < columns && row >= 0 && row < rows) {
+          counts[(int) row * columns + (int) column] += data.getWeight(i);
+        }
+        else {
+          outside += data.getWeight(i);
+        }
+      }
+    }
+
+    @Override
+    public void combine(Histogram other) {
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] += other.counts[i];
+      }
+      outside += other.outside;
+    }
+
+    /**
+     * Get the (weighted) number of points in a cell.
+     * @param column the column of the cell, from the left
+     * @param row the row of the cell, from the bottom
+     * @return the number of points
+     */
+    public double getCount(int column, int row) {
+      return counts[row * columns + column];
+    }
+
+    /**
+     * Get the (weighted) number of points outside the grid.
+     * @return the number of points
+     */
+    public double getOutside() {
+      return outside;
+    }
+
+    /**
+     * Get the counts of all cells.
+     * @return a copy of the counts, row by row from the bottom
+     */
+    public double[] getCounts() {
+      return Arrays.copyOf(counts, counts.length);
+    }
+  }
+
+  /**
+   * KMeansStep is the assignment step of a k-means iteration: it assigns every point to its
+   * closest center and collects the PartialSums of the new centers. Every point counts once.
+   */
+  public static final class KMeansStep implements TupleAggregator<KMeansStep> {
+    private final double[] center;
+    private final Assignments cluster;
+    private final PartialSums sums;
+
+    /**
+     * Construct an empty KMeansStep.
+     * @param center the interleaved x- and y-coordinates of the centers; not copied
+     * @param cluster the assignments to update, or null to only collect the sums; the
+     *                ranges of a parallel scan write disjoint parts of it
+     */
+    public KMeansStep(double[] center, Assignments cluster) {
+      this.center = center;
+      this.cluster = cluster;
+      this.sums = new PartialSums(center.length / 2);
+    }
+
+    @Override
+    public KMeansStep empty() {
+      return new KMeansStep(center, cluster);
+    }
+
+    @Override
+    public void accumulate(PackedTuples data, int start, int end) {
+      sums.accumulate(data, start, end, center, cluster, 0, false);
+    }
+
+    @Override
+    public void combine(KMeansStep other) {
+      sums.add(other.sums);
+    }
+
+    /**
+     * Get the sums collected, from which PartialSums.centers computes the next centers.
+     * @return the sums
+     */
+    public PartialSums getSums() {
+      return sums;
+    }
+  }
+
+}
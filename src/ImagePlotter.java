@@ -1,6 +1,7 @@
 import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -16,8 +17,15 @@ import javax.imageio.ImageIO;
  * It is also possible to set the size of the image to
  * be created, along with the range of the data that
  * is provided to it.
+ *
+ * For large images, writeTiled renders and encodes the
+ * image a strip of rows at a time, and setMaxSize caps
+ * the resolution by scaling the whole plot down.
  */
 public class ImagePlotter {
+  // the rows rendered at a time by writeTiled
+  private static final int STRIP_ROWS = 256;
+
   private List<Double> points;
   private List<Color> pointColors;
   private List<Double> lines;
@@ -31,11 +39,14 @@ public class ImagePlotter {
   private final int pointSize;
   private int width;
   private int height;
+  // the longest side of the image, in pixels; larger images are scaled down
+  private int maxSize;
 
   public ImagePlotter() {
     reset();
     pointSize = 3;
     width = height = 500;
+    maxSize = Integer.MAX_VALUE;
   }
 
   /**
@@ -161,14 +172,104 @@ public class ImagePlotter {
    * @throws IOException
    */
   public void write(String path) throws IOException {
-    BufferedImage image = new BufferedImage(width,height,BufferedImage
+    int w = scaledWidth();
+    int h = scaledHeight();
+    BufferedImage image = new BufferedImage(w,h,BufferedImage
             .TYPE_INT_ARGB);
 
     Graphics2D g2d = (Graphics2D) image.getGraphics();
 
     g2d.setColor(Color.WHITE);
-    g2d.fillRect(0,0,width,height);
-    AffineTransform mat = new AffineTransform();
+    g2d.fillRect(0,0,w,h);
+    draw(g2d, transform(), 0, h);
+
+    String imageformat = path.substring(path.indexOf(".")+1);
+    ImageIO.write(
+            image,
+            imageformat,
+            new FileOutputStream(path));
+
+  }
+
+  /**
+   * Draw all the shapes added thus far and save them as a PNG image to
+   * the specific path, a strip of rows at a time: only one strip of the
+   * image is ever in memory, however large the image is.
+   * @param path where to write the PNG image
+   * @throws IOException if writing fails
+   */
+  public void writeTiled(String path) throws IOException {
+    int w = scaledWidth();
+    int h = scaledHeight();
+    AffineTransform mat = transform();
+    BufferedImage strip = new BufferedImage(w, Math.min(h, STRIP_ROWS),
+            BufferedImage.TYPE_INT_RGB);
+    int[] pixels = ((DataBufferInt) strip.getRaster().getDataBuffer()).getData();
+
+    try (PngWriter png = new PngWriter(new FileOutputStream(path), w, h)) {
+      for (int top = 0; top < h; top += STRIP_ROWS) {
+        int rows = Math.min(STRIP_ROWS, h - top);
+        Graphics2D g2d = strip.createGraphics();
+        g2d.setColor(Color.WHITE);
+        g2d.fillRect(0, 0, w, rows);
+        draw(g2d, mat, top, rows);
+        g2d.dispose();
+        png.writeRows(pixels, rows, w);
+      }
+    }
+  }
+
+  /**
+   * Set the longest side of the image, in pixels. A plot larger than
+   * that is scaled down as a whole, keeping its aspect ratio; its points
+   * are then drawn pointSize times the scale wide, but at least a pixel.
+   * @param maxSize the most pixels along either side
+   */
+  public void setMaxSize(int maxSize) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("the image needs at least one pixel!");
+    }
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * The factor the plot is scaled down by to fit the maximum size.
+   * @return the factor, at most 1
+   */
+  private double downscale() {
+    return Math.min(1, (double) maxSize / Math.max(width, height));
+  }
+
+  /**
+   * The width of the image after scaling down.
+   * @return the width in pixels
+   */
+  private int scaledWidth() {
+    return Math.max(1, (int) Math.round(width * downscale()));
+  }
+
+  /**
+   * The height of the image after scaling down.
+   * @return the height in pixels
+   */
+  private int scaledHeight() {
+    return Math.max(1, (int) Math.round(height * downscale()));
+  }
+
+  /**
+   * The radius of a point in pixels, scaled down with the plot but never below a pixel.
+   * @return the radius
+   */
+  private int pointRadius() {
+    return Math.max(1, (int) Math.round(pointSize * downscale()));
+  }
+
+  /**
+   * The transformation from data coordinates to the pixels of the image.
+   * @return the transformation
+   */
+  private AffineTransform transform() {
+    AffineTransform mat = AffineTransform.getScaleInstance(downscale(), downscale());
     mat.concatenate(AffineTransform.getTranslateInstance(0, ymax));
     mat.concatenate(AffineTransform.getScaleInstance(1, -1));
 
@@ -178,18 +279,41 @@ public class ImagePlotter {
                     (double) this.height / (ymax - ymin)));
     mat.concatenate(
             AffineTransform.getTranslateInstance(-xmin, -ymin));
+    return mat;
+  }
 
+  /**
+   * Draw the shapes that reach into some rows of the image.
+   * @param g2d where to draw; its row 0 is the first row drawn
+   * @param mat the transformation from data coordinates to pixels
+   * @param top the first row of the image to draw
+   * @param rows the number of rows to draw
+   */
+  private void draw(Graphics2D g2d, AffineTransform mat, int top, int rows) {
+    AffineTransform shifted = AffineTransform.getTranslateInstance(0, -top);
+    shifted.concatenate(mat);
 
-    g2d.setTransform(mat);
-
-    for (int i = 0; i < points.size(); i += 2) {
-      g2d.setColor(pointColors.get(i/2));
-      g2d.fillOval(points.get(i).intValue() - pointSize,
-              points.get(i + 1).intValue() - pointSize,
-              2 * pointSize,
-              2 * pointSize);
+    if (downscale() < 1) {
+      drawPixelPoints(g2d, mat, top, rows);
     }
+    else {
+      g2d.setTransform(shifted);
 
+      // the pixel row of a point is scaleY * y + translateY; skip the points off these rows
+      double reach = Math.abs(mat.getScaleY()) * pointSize + 1;
+      for (int i = 0; i < points.size(); i += 2) {
+        double row = mat.getScaleY() * points.get(i + 1).intValue() + mat.getTranslateY();
+        if (row + reach < top || row - reach > top + rows) {
+          continue;
+        }
+        g2d.setColor(pointColors.get(i/2));
+        g2d.fillOval(points.get(i).intValue() - pointSize,
+                points.get(i + 1).intValue() - pointSize,
+                2 * pointSize,
+                2 * pointSize);
+      }
+    }
+    g2d.setTransform(shifted);
 
     for (int i = 0; i < lines.size(); i += 4) {
       g2d.setColor(lineColors.get(i/4));
@@ -204,13 +328,32 @@ public class ImagePlotter {
       g2d.drawOval(circles.get(i) - size, circles.get(i + 1) - size, 2 * size,
               2 * size);
     }
+  }
 
-    String imageformat = path.substring(path.indexOf(".")+1);
-    ImageIO.write(
-            image,
-            imageformat,
-            new FileOutputStream(path));
-
+  /**
+   * Draw the points of a scaled down plot that reach into some rows of the image. Drawn
+   * through the transformation, they would shrink with the plot until they vanish, so they
+   * are mapped to pixels and drawn with a radius of at least one pixel instead.
+   * @param g2d where to draw, without a transformation; its row 0 is the first row drawn
+   * @param mat the transformation from data coordinates to pixels
+   * @param top the first row of the image to draw
+   * @param rows the number of rows to draw
+   */
+  private void drawPixelPoints(Graphics2D g2d, AffineTransform mat, int top, int rows) {
+    int radius = pointRadius();
+    double[] pixel = new double[2];
+    for (int i = 0; i < points.size(); i += 2) {
+      pixel[0] = points.get(i).intValue();
+      pixel[1] = points.get(i + 1).intValue();
+      mat.transform(pixel, 0, pixel, 0, 1);
+      int column = (int) Math.round(pixel[0]);
+      int row = (int) Math.round(pixel[1]) - top;
+      if (row + radius < 0 || row - radius > rows) {
+        continue;
+      }
+      g2d.setColor(pointColors.get(i/2));
+      g2d.fillOval(column - radius, row - radius, 2 * radius, 2 * radius);
+    }
   }
 
   /**
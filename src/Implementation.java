@@ -12,6 +12,9 @@ import java.io.File;
  * Created by jennyxiao on 2/27/17.
  */
 public class Implementation {
+  // the longest side of a saved graph, in pixels; wide data is scaled down to fit
+  private static final int MAX_IMAGE_SIZE = 4096;
+
   /**
    * A helper method for determining which color to plot the clusters.
    * @param k the current cluster
@@ -48,7 +51,7 @@ public class Implementation {
    * @param cluster the cluster assignment
    * @param name the name of the graph to be rendered and saved
    */
-  private static void renderCluster(ListOfTuplesImpl data, List<Integer> cluster, String name) {
+  private static void renderCluster(ListOfTuplesImpl data, Assignments cluster, String name) {
     ImagePlotter plotter = new ImagePlotter();
 
     int maxX = (int) ListUtils.maxX(data.getHead());
@@ -74,7 +77,8 @@ public class Implementation {
     }
 
     try {
-      plotter.write(new StringBuilder().append("visitor_graph/").append(name).append(".png").toString());
+      plotter.setMaxSize(MAX_IMAGE_SIZE);
+      plotter.writeTiled(new StringBuilder().append("visitor_graph/").append(name).append(".png").toString());
     } catch (IOException e) {
       System.out.println("File does not exist!");
     }
@@ -89,8 +93,18 @@ public class Implementation {
    * @throws FileNotFoundException if the file does not exist in said directory
    */
   private static ListOfTuplesImpl readData(String filename) throws FileNotFoundException {
-    Scanner sc = new Scanner(new FileInputStream
-            (new StringBuilder().append("data/").append(filename).toString()));
+    return readData(new File(new StringBuilder().append("data/").append(filename).toString()));
+  }
+
+  /**
+   * A helper method for reading in data from any file in the text format of data/.
+   * Package-private so that the benchmarks can time it on generated files.
+   * @param file the file to be read
+   * @return a ListOfTuplesImpl object that contains the data.
+   * @throws FileNotFoundException if the file does not exist
+   */
+  static ListOfTuplesImpl readData(File file) throws FileNotFoundException {
+    Scanner sc = new Scanner(new FileInputStream(file));
 
     ListOfTuplesImpl data = new ListOfTuplesImpl();
 
@@ -130,8 +144,10 @@ public class Implementation {
      */
     data.accept(kMeans);
 
-    if (kMeans.checkCluster(data)) {
-      renderCluster(data, kMeans.getCluster(), toSave);
+    ClusterReport report = kMeans.report(data);
+    System.out.println(toSave + ": " + report);
+    if (report.isValid()) {
+      renderCluster(data, kMeans.getAssignments(), toSave);
     }
     else {
       System.out.println("The result is not good!");
@@ -148,17 +164,22 @@ public class Implementation {
   private static void linear(String filename) throws FileNotFoundException {
     ListOfTuplesImpl linear;
     linear = readData(filename);
-    LinearRegressionImpl linReg = new LinearRegressionImpl();
+    /*
+     * fit the line and find the bounds of the plot in one pass over the data
+     */
+    RegressionStats linReg = new RegressionStats();
+    FusedScan.Bounds bounds = new FusedScan.Bounds();
+    FusedScan scan = new FusedScan().add(linReg).add(bounds);
 
     /*
      * DOUBLE DISPATCH!
      */
-    linear.accept(linReg);
+    linear.accept(scan);
 
-    int maxX = (int) ListUtils.maxX(linear.getHead());
-    int minX = (int) ListUtils.minX(linear.getHead());
-    int maxY = (int) ListUtils.maxY(linear.getHead());
-    int minY = (int) ListUtils.minY(linear.getHead());
+    int maxX = (int) bounds.getMaxX();
+    int minX = (int) bounds.getMinX();
+    int maxY = (int) bounds.getMaxY();
+    int minY = (int) bounds.getMinY();
 
     ImagePlotter plotter = new ImagePlotter();
     plotter.setWidth(maxX - minX + 200);
@@ -174,8 +195,8 @@ public class Implementation {
 
     }
 
-    double slope = linReg.getSlope();
-    double coefficient = linReg.getIntercept();
+    double slope = linReg.slope();
+    double coefficient = linReg.intercept();
 
     double startPointX = minX - 20;
     double startPointY = slope * startPointX + coefficient;
@@ -187,7 +208,8 @@ public class Implementation {
     String toSave = filename.split("\\.")[0];
 
     try {
-      plotter.write(new StringBuilder().append("visitor_graph/").append(toSave).append(".png").toString());
+      plotter.setMaxSize(MAX_IMAGE_SIZE);
+      plotter.writeTiled(new StringBuilder().append("visitor_graph/").append(toSave).append(".png").toString());
     } catch (IOException e) {
       System.out.println("File does not exist!");
     }
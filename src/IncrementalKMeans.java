@@ -0,0 +1,296 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * IncrementalKMeans keeps a trained k-means clustering attached to a ListOfTuplesImpl and
+ * updates it as points are appended, instead of clustering the whole dataset again.
+ *
+ * Appended points are assigned to the closest center and added to its sums, so the centers
+ * stay the means of their clusters; an append costs time in proportion to the batch. Each
+ * cluster remembers the center its points were assigned to; once a center has drifted from
+ * it by more than a threshold, local Lloyd iterations reassign the points of the drifted
+ * clusters and of the clusters near them. A point of cluster j can only be closer to a moved
+ * center c if c is within twice j's radius of j's center, so the other clusters are left
+ * alone. Drift below the threshold is tolerated.
+ *
+ * The clustering is not thread-safe; it is updated on the thread that appends.
+ */
+public class IncrementalKMeans implements AppendListener {
+  private final ListOfTuplesImpl data;
+  private final int k;
+  private final double threshold;
+  private int maxRefinements;
+  private int refinements;
+
+  /*
+   * per cluster: the mean, the center its points were assigned to, the largest distance of
+   * a point to that center (an upper bound, after reassignments elsewhere) and the sums
+   */
+  private final double[] center;
+  private final double[] anchor;
+  private final double[] radius;
+  private final double[] sum;
+  private final long[] count;
+
+  /*
+   * per point: its cluster and its position in the member list of that cluster
+   */
+  private int[] cluster;
+  private int[] position;
+  private int size;
+  private final int[][] members;
+  private final int[] memberCount;
+
+  /**
+   * Attach a trained clustering to a dataset: assign every point of the dataset to the
+   * closest center of the model, and follow every append from now on.
+   * @param model the trained centers
+   * @param data the dataset to follow
+   * @param threshold how far a center may drift before its points are reassigned
+   */
+  public IncrementalKMeans(KMeansModel model, ListOfTuplesImpl data, double threshold)
+          throws IllegalArgumentException {
+    if (!(threshold >= 0)) {
+      throw new IllegalArgumentException("the drift threshold cannot be negative!");
+    }
+    this.data = data;
+    this.k = model.getK();
+    this.threshold = threshold;
+    this.maxRefinements = 10;
+    this.center = model.getCenters();
+    this.anchor = model.getCenters();
+    this.radius = new double[k];
+    this.sum = new double[2 * k];
+    this.count = new long[k];
+    this.cluster = new int[16];
+    this.position = new int[16];
+    this.members = new int[k][];
+    for (int c = 0; c < k; c++) {
+      members[c] = new int[16];
+    }
+    this.memberCount = new int[k];
+
+    appended(data.getHead(), 0);
+    data.addListener(this);
+  }
+
+  /**
+   * Set the most local Lloyd iterations run after an append.
+   * @param maxRefinements the number of iterations
+   */
+  public void setMaxRefinements(int maxRefinements) throws IllegalArgumentException {
+    if (maxRefinements < 0) {
+      throw new IllegalArgumentException("the number of refinements cannot be negative!");
+    }
+    this.maxRefinements = maxRefinements;
+  }
+
+  /**
+   * Stop following the dataset.
+   */
+  public void detach() {
+    data.removeListener(this);
+  }
+
+  /**
+   * Get the number of points clustered.
+   * @return the number of points
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the cluster of a point.
+   * @param i the index of the point in the dataset
+   * @return the index of its cluster
+   */
+  public int getCluster(int i) {
+    return cluster[i];
+  }
+
+  /**
+   * Get the number of points of a cluster.
+   * @param c the index of the cluster
+   * @return the number of points
+   */
+  public long getSize(int c) {
+    return count[c];
+  }
+
+  /**
+   * Get the number of local Lloyd iterations run so far.
+   * @return the number of iterations
+   */
+  public int getRefinements() {
+    return refinements;
+  }
+
+  /**
+   * Get the current centers, the means of the clusters.
+   * @return the model
+   */
+  public KMeansModel getModel() {
+    return new KMeansModel(center);
+  }
+
+  @Override
+  public void appended(List<Tuple> points, int start) {
+    int end = points.size();
+    if (end > cluster.length) {
+      int capacity = Math.max(end, 2 * cluster.length);
+      cluster = Arrays.copyOf(cluster, capacity);
+      position = Arrays.copyOf(position, capacity);
+    }
+    for (int i = start; i < end; i++) {
+      Tuple t = points.get(i);
+      join(i, KMeansImpl.nearest(t.getX(), t.getY(), center), t.getX(), t.getY());
+    }
+    size = end;
+    updateCenters();
+    refine(points);
+  }
+
+  /**
+   * Run local Lloyd iterations until no center has drifted past the threshold.
+   * @param points the dataset
+   */
+  private void refine(List<Tuple> points) {
+    boolean[] affected = new boolean[k];
+    for (int iteration = 0; iteration < maxRefinements; iteration++) {
+      /*
+       * the drifted clusters, and the clusters whose points may be closer to a drifted center
+       */
+      Arrays.fill(affected, false);
+      boolean any = false;
+      for (int c = 0; c < k; c++) {
+        if (drift(c) > threshold) {
+          affected[c] = true;
+          any = true;
+        }
+      }
+      if (!any) {
+        return;
+      }
+      for (int j = 0; j < k; j++) {
+        if (affected[j] || count[j] == 0) {
+          continue;
+        }
+        double reach = 2 * (radius[j] + drift(j));
+        for (int c = 0; c < k && !affected[j]; c++) {
+          if (affected[c] && distance(center, j, center[2 * c], center[2 * c + 1]) < reach) {
+            affected[j] = true;
+          }
+        }
+      }
+
+      /*
+       * reassign their points to the current centers
+       */
+      int total = 0;
+      for (int c = 0; c < k; c++) {
+        if (affected[c]) {
+          total += memberCount[c];
+        }
+      }
+      int[] moving = new int[total];
+      total = 0;
+      for (int c = 0; c < k; c++) {
+        if (affected[c]) {
+          System.arraycopy(members[c], 0, moving, total, memberCount[c]);
+          total += memberCount[c];
+          anchor[2 * c] = center[2 * c];
+          anchor[2 * c + 1] = center[2 * c + 1];
+          radius[c] = 0;
+        }
+      }
+      for (int i : moving) {
+        Tuple t = points.get(i);
+        int c = KMeansImpl.nearest(t.getX(), t.getY(), center);
+        if (c != cluster[i]) {
+          leave(i, t.getX(), t.getY());
+        }
+        join(i, c, t.getX(), t.getY());
+      }
+      updateCenters();
+      refinements++;
+    }
+  }
+
+  /**
+   * Put a point into a cluster, or keep it there if it is already a member.
+   * @param i the index of the point
+   * @param c the cluster
+   * @param x the x coordinate of the point
+   * @param y the y coordinate of the point
+   */
+  private void join(int i, int c, double x, double y) {
+    radius[c] = Math.max(radius[c], distance(anchor, c, x, y));
+    if (i < size && cluster[i] == c) {
+      return;
+    }
+    if (memberCount[c] == members[c].length) {
+      members[c] = Arrays.copyOf(members[c], 2 * members[c].length);
+    }
+    members[c][memberCount[c]] = i;
+    position[i] = memberCount[c]++;
+    cluster[i] = c;
+    sum[2 * c] += x;
+    sum[2 * c + 1] += y;
+    count[c]++;
+  }
+
+  /**
+   * Take a point out of its cluster, moving the last member into its place.
+   * @param i the index of the point
+   * @param x the x coordinate of the point
+   * @param y the y coordinate of the point
+   */
+  private void leave(int i, double x, double y) {
+    int c = cluster[i];
+    int last = members[c][--memberCount[c]];
+    members[c][position[i]] = last;
+    position[last] = position[i];
+    sum[2 * c] -= x;
+    sum[2 * c + 1] -= y;
+    count[c]--;
+    // marks the point as not in any cluster, for join
+    cluster[i] = -1;
+  }
+
+  /**
+   * Move every non-empty cluster's center to its mean.
+   */
+  private void updateCenters() {
+    for (int c = 0; c < k; c++) {
+      if (count[c] > 0) {
+        center[2 * c] = sum[2 * c] / count[c];
+        center[2 * c + 1] = sum[2 * c + 1] / count[c];
+      }
+    }
+  }
+
+  /**
+   * How far a center has moved since its points were assigned.
+   * @param c the cluster
+   * @return the distance
+   */
+  private double drift(int c) {
+    return distance(anchor, c, center[2 * c], center[2 * c + 1]);
+  }
+
+  /**
+   * The distance from one of the given centers to a point.
+   * @param centers the interleaved coordinates of the centers
+   * @param c the index of the center
+   * @param x the x coordinate of the point
+   * @param y the y coordinate of the point
+   * @return the distance
+   */
+  private static double distance(double[] centers, int c, double x, double y) {
+    double diffX = x - centers[2 * c];
+    double diffY = y - centers[2 * c + 1];
+    return Math.sqrt(diffX * diffX + diffY * diffY);
+  }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * IterationStats holds the statistics of a single k-means iteration.
+ */
+public final class IterationStats {
+  private final int iteration;
+  private final long assignNanos;
+  private final long updateNanos;
+  private final long errorNanos;
+  private final int changed;
+  private final double error;
+
+  /**
+   * Construct an IterationStats object.
+   * @param iteration the index of the iteration, starting from 0
+   * @param assignNanos the time spent assigning clusters
+   * @param updateNanos the time spent updating the centers
+   * @param errorNanos the time spent calculating the error
+   * @param changed the number of points that changed cluster
+   * @param error the error after the iteration, NaN if it was not calculated
+   */
+  public IterationStats(int iteration, long assignNanos, long updateNanos, long errorNanos,
+                        int changed, double error) {
+    this.iteration = iteration;
+    this.assignNanos = assignNanos;
+    this.updateNanos = updateNanos;
+    this.errorNanos = errorNanos;
+    this.changed = changed;
+    this.error = error;
+  }
+
+  /**
+   * Get the index of the iteration.
+   * @return the index of the iteration, starting from 0
+   */
+  public int getIteration() {
+    return iteration;
+  }
+
+  /**
+   * Get the time spent assigning clusters. Except with incremental updates, this includes
+   * summing up the clusters, which happens in the same pass; by default, without filtering
+   * and in memory, it also includes computing the new centers from the sums.
+   * @return the time in nanoseconds
+   */
+  public long getAssignNanos() {
+    return assignNanos;
+  }
+
+  /**
+   * Get the time spent updating the centers.
+   * @return the time in nanoseconds
+   */
+  public long getUpdateNanos() {
+    return updateNanos;
+  }
+
+  /**
+   * Get the time spent calculating the error.
+   * @return the time in nanoseconds, 0 if the error was not calculated
+   */
+  public long getErrorNanos() {
+    return errorNanos;
+  }
+
+  /**
+   * Get the number of points that changed cluster.
+   * @return the number of reassigned points
+   */
+  public int getChanged() {
+    return changed;
+  }
+
+  /**
+   * Get the error after the iteration, as used for convergence.
+   * @return the error, NaN if it was not calculated
+   */
+  public double getError() {
+    return error;
+  }
+
+  @Override
+  public String toString() {
+    return "iteration " + iteration + ": assign " + assignNanos + "ns, update " + updateNanos
+            + "ns, error " + errorNanos + "ns, changed " + changed + ", error " + error;
+  }
+
+}
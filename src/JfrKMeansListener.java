@@ -0,0 +1,64 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JfrKMeansListener exports every k-means iteration as a JDK Flight Recorder event,
+ * named kmeans.Iteration, so that runs can be inspected in a recording.
+ * When the event is not enabled in the recording, no event is created or committed;
+ * the IterationStats that KMeansImpl passes to every listener are still built.
+ */
+public class JfrKMeansListener implements KMeansListener {
+
+  /**
+   * The JFR event for one iteration.
+   */
+  @Name("kmeans.Iteration")
+  @Label("K-Means Iteration")
+  @Category("K-Means")
+  @Description("Statistics of a single KMeansImpl iteration")
+  static class IterationEvent extends Event {
+    @Label("Iteration")
+    int iteration;
+
+    @Label("Assign Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long assignNanos;
+
+    @Label("Update Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long updateNanos;
+
+    @Label("Error Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long errorNanos;
+
+    @Label("Reassigned Points")
+    int changed;
+
+    @Label("Error")
+    double error;
+  }
+
+  // only used to ask whether the event type is enabled
+  private static final IterationEvent PROBE = new IterationEvent();
+
+  @Override
+  public void onIteration(IterationStats stats) {
+    if (!PROBE.isEnabled()) {
+      return;
+    }
+    IterationEvent event = new IterationEvent();
+    event.iteration = stats.getIteration();
+    event.assignNanos = stats.getAssignNanos();
+    event.updateNanos = stats.getUpdateNanos();
+    event.errorNanos = stats.getErrorNanos();
+    event.changed = stats.getChanged();
+    event.error = stats.getError();
+    event.commit();
+  }
+
+}
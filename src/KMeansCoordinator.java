@@ -0,0 +1,357 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * KMeansCoordinator runs k-means over data sharded across ShardWorker processes.
+ * Every iteration it broadcasts the centers, lets each worker assign its own shard in parallel,
+ * and reduces the workers' PartialSums into the new centers; only the centers and the sums
+ * travel over the network. A cluster that lost all its points is repaired like
+ * KMeansImpl's FARTHEST_POINT does: every worker sends its points farthest from their centers,
+ * and the farthest of them all become the new centers.
+ *
+ * To try it with several worker JVMs on one machine:
+ * <pre>
+ *   java DataGenerator cluster 1000000 shard-0.bin 3 1
+ *   java DataGenerator cluster 1000000 shard-1.bin 3 2
+ *   java ShardWorker 9000 shard-0.bin &amp;
+ *   java ShardWorker 9001 shard-1.bin &amp;
+ *   java KMeansCoordinator 6 localhost:9000 localhost:9001 shutdown
+ * </pre>
+ */
+public class KMeansCoordinator implements Closeable {
+  private final List<ShardConnection> workers;
+  private KMeansImpl.Convergence convergence;
+  private double changeTolerance;
+  private KMeansListener listener;
+  private long seed;
+  private boolean seeded;
+  // how many empty clusters the last run repaired
+  private int repairs;
+
+  /**
+   * Construct a KMeansCoordinator object, connected to the given workers.
+   * @param addresses the addresses of the workers
+   * @throws IOException if a worker cannot be reached
+   */
+  public KMeansCoordinator(List<InetSocketAddress> addresses) throws IOException {
+    if (addresses.isEmpty()) {
+      throw new IllegalArgumentException("at least one worker is needed!");
+    }
+    workers = new ArrayList<ShardConnection>();
+    try {
+      for (InetSocketAddress address : addresses) {
+        ShardConnection worker = new ShardConnection(address);
+        workers.add(worker);
+        worker.out.writeInt(ShardWorker.SIZE);
+        worker.out.flush();
+        worker.size = worker.in.readLong();
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+    convergence = KMeansImpl.Convergence.ERROR;
+  }
+
+  /**
+   * Choose how convergence is decided, like KMeansImpl.setConvergence.
+   * @param convergence the convergence criterion
+   * @param changeTolerance for CHANGES, the fraction of points that may still change cluster
+   */
+  public void setConvergence(KMeansImpl.Convergence convergence, double changeTolerance)
+          throws IllegalArgumentException {
+    if (convergence == null || changeTolerance < 0 || changeTolerance >= 1) {
+      throw new IllegalArgumentException("change tolerance has to be in [0, 1)!");
+    }
+    this.convergence = convergence;
+    this.changeTolerance = changeTolerance;
+  }
+
+  /**
+   * Set a listener to be notified after every iteration, or null for none.
+   * The assign time of an iteration is the whole round trip to the workers.
+   * @param listener the listener
+   */
+  public void setListener(KMeansListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Seed the choice of the initial centers, like KMeansImpl.setSeed. The workers' sums are
+   * reduced in worker order, so a seeded run over the same shards is reproducible.
+   * @param seed the seed
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+    this.seeded = true;
+  }
+
+  /**
+   * Get the number of points over all workers.
+   * @return the number of points
+   */
+  public long size() {
+    long n = 0;
+    for (ShardConnection worker : workers) {
+      n += worker.size;
+    }
+    return n;
+  }
+
+  /**
+   * Run k-means over all the workers' shards.
+   * @param k the number of clusters
+   * @return the trained model
+   * @throws IOException if a worker fails
+   */
+  public KMeansModel cluster(int k) throws IOException {
+    long n = size();
+    if (k <= 0 || n < k) {
+      throw new IllegalArgumentException("k has to be in [1, number of points]!");
+    }
+    double[] center = initialCenters(k, n);
+
+    double meanDistance = Double.POSITIVE_INFINITY;
+    PartialSums total = new PartialSums(k);
+    repairs = 0;
+    int iteration = 0;
+    boolean converged = false;
+    while (!converged && iteration < 200) {
+      long start = listener != null ? System.nanoTime() : 0;
+
+      /*
+       * broadcast first, so that all workers compute at the same time, then reduce
+       */
+      for (ShardConnection worker : workers) {
+        worker.out.writeInt(ShardWorker.STEP);
+        worker.out.writeBoolean(iteration == 0);
+        worker.out.writeInt(k);
+        for (double c : center) {
+          worker.out.writeDouble(c);
+        }
+        worker.out.flush();
+      }
+      total.clear();
+      for (ShardConnection worker : workers) {
+        total.add(PartialSums.readFrom(worker.in));
+      }
+
+      long assigned = listener != null ? System.nanoTime() : 0;
+      total.centers(center);
+      long updated = listener != null ? System.nanoTime() : 0;
+
+      double error = Double.NaN;
+      if (convergence == KMeansImpl.Convergence.ERROR) {
+        // the mean distance to the centers the points were assigned to, as out-of-core does
+        double newMean = total.getDistance() / n;
+        error = meanDistance == Double.POSITIVE_INFINITY
+                ? newMean : Math.abs(newMean - meanDistance) / meanDistance;
+        meanDistance = newMean;
+        converged = iteration > 0 && error <= 0.0001;
+      }
+      else {
+        converged = total.getChanged() <= changeTolerance * n;
+      }
+      if (repairEmptyClusters(center, total)) {
+        converged = false;
+      }
+
+      if (listener != null) {
+        listener.onIteration(new IterationStats(iteration, assigned - start, updated - assigned,
+                0, (int) Math.min(Integer.MAX_VALUE, total.getChanged()), error));
+      }
+      iteration++;
+    }
+    return new KMeansModel(center, iteration,
+            (int) Math.min(Integer.MAX_VALUE, total.getChanged()), converged);
+  }
+
+  /**
+   * Get the number of empty clusters the last run repaired.
+   * @return the number of repairs
+   */
+  public int getRepairs() {
+    return repairs;
+  }
+
+  /**
+   * Give every empty cluster a new center, with one round trip to the workers.
+   * @param center the interleaved x- and y-coordinates of the centers; updated
+   * @param total the sums of the last step over all workers
+   * @return true if a center moved
+   * @throws IOException if a worker fails
+   */
+  private boolean repairEmptyClusters(double[] center, PartialSums total) throws IOException {
+    int k = total.getK();
+    int[] empty = new int[k];
+    int m = 0;
+    for (int c = 0; c < k; c++) {
+      if (total.count[c] == 0) {
+        empty[m++] = c;
+      }
+    }
+    if (m == 0) {
+      return false;
+    }
+
+    for (ShardConnection worker : workers) {
+      worker.out.writeInt(ShardWorker.FARTHEST);
+      worker.out.writeInt(m);
+      worker.out.writeInt(k);
+      for (double c : center) {
+        worker.out.writeDouble(c);
+      }
+      worker.out.flush();
+    }
+    // the candidates of all workers, merged in worker order
+    double[] best = new double[3 * m];
+    for (ShardConnection worker : workers) {
+      for (int j = 0; j < m; j++) {
+        double dist = worker.in.readDouble();
+        double x = worker.in.readDouble();
+        double y = worker.in.readDouble();
+        KMeansImpl.offer(best, dist, x, y);
+      }
+    }
+    int moved = KMeansImpl.reseed(best, empty, center);
+    repairs += moved;
+    return moved > 0;
+  }
+
+  /**
+   * Pick k distinct random points over all shards as the initial centers.
+   * @param k the number of clusters
+   * @param n the number of points over all shards
+   * @return the interleaved x- and y-coordinates of the centers
+   * @throws IOException if a worker fails
+   */
+  private double[] initialCenters(int k, long n) throws IOException {
+    SplittableRandom random = seeded ? new SplittableRandom(seed) : new SplittableRandom();
+    long[] picked = new long[k];
+    int i = 0;
+    while (i < k) {
+      long candidate = random.nextLong(n);
+      // make sure that we don't get duplicate centers
+      boolean duplicate = false;
+      for (int j = 0; j < i; j++) {
+        duplicate |= picked[j] == candidate;
+      }
+      if (!duplicate) {
+        picked[i++] = candidate;
+      }
+    }
+
+    /*
+     * ask each worker for the picked points in its shard
+     */
+    double[] center = new double[2 * k];
+    long first = 0;
+    for (ShardConnection worker : workers) {
+      List<Integer> mine = new ArrayList<Integer>();
+      for (int j = 0; j < k; j++) {
+        if (picked[j] >= first && picked[j] < first + worker.size) {
+          mine.add(j);
+        }
+      }
+      if (!mine.isEmpty()) {
+        worker.out.writeInt(ShardWorker.POINTS);
+        worker.out.writeInt(mine.size());
+        for (int j : mine) {
+          worker.out.writeLong(picked[j] - first);
+        }
+        worker.out.flush();
+        for (int j : mine) {
+          center[2 * j] = worker.in.readDouble();
+          center[2 * j + 1] = worker.in.readDouble();
+        }
+      }
+      first += worker.size;
+    }
+    return center;
+  }
+
+  /**
+   * Tell every worker to shut down, and close the connections.
+   * @throws IOException if a connection fails
+   */
+  public void shutdownWorkers() throws IOException {
+    for (ShardConnection worker : workers) {
+      worker.out.writeInt(ShardWorker.SHUTDOWN);
+      worker.out.flush();
+    }
+    for (ShardConnection worker : workers) {
+      worker.socket.close();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (ShardConnection worker : workers) {
+      worker.close();
+    }
+  }
+
+  /**
+   * Parse "host:port".
+   * @param hostPort the address as text
+   * @return the address
+   */
+  static InetSocketAddress parseAddress(String hostPort) throws IllegalArgumentException {
+    int colon = hostPort.lastIndexOf(':');
+    if (colon < 0) {
+      throw new IllegalArgumentException("expected host:port, got " + hostPort);
+    }
+    return new InetSocketAddress(hostPort.substring(0, colon),
+            Integer.parseInt(hostPort.substring(colon + 1)));
+  }
+
+  /**
+   * Main method. Cluster the data of the given workers and print the centers.
+   * @param args k, then host:port of each worker, and "shutdown" to stop the workers after
+   * @throws IOException if a worker fails
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.out.println("usage: java KMeansCoordinator k host:port... [shutdown]");
+      return;
+    }
+    int k = Integer.parseInt(args[0]);
+    List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+    boolean shutdown = false;
+    for (String arg : Arrays.asList(args).subList(1, args.length)) {
+      if (arg.equals("shutdown")) {
+        shutdown = true;
+      }
+      else {
+        addresses.add(parseAddress(arg));
+      }
+    }
+
+    KMeansCoordinator coordinator = new KMeansCoordinator(addresses);
+    try {
+      coordinator.setListener(stats -> System.out.println(stats));
+      long start = System.nanoTime();
+      KMeansModel model = coordinator.cluster(k);
+      System.out.println("clustered " + coordinator.size() + " points in "
+              + model.getIterations() + " iterations, "
+              + (System.nanoTime() - start) / 1000000 + " ms");
+      for (int i = 0; i < model.getK(); i++) {
+        System.out.println("center " + i + ": (" + model.getCenterX(i) + ", "
+                + model.getCenterY(i) + ")");
+      }
+    } finally {
+      if (shutdown) {
+        coordinator.shutdownWorkers();
+      }
+      else {
+        coordinator.close();
+      }
+    }
+  }
+
+}
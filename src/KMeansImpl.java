@@ -1,11 +1,29 @@
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
 
 /**
  * KMeansImpl class fleshes out the k-means algorithm.
  */
 public class KMeansImpl implements Algorithm  {
+  // the points of a block; sums are kept per block and added up in block order, so the
+  // result does not depend on how the blocks were spread over the threads
+  private static final int BLOCK = 1 << 14;
 
   /* if i'm going to have a class that represents an algorithm,
    * then i need to think about a way to pass it data
@@ -16,12 +34,78 @@ public class KMeansImpl implements Algorithm  {
    */
 
   private int k;
-  // ArrayList seems to be the best idea, since you can adjust size
-  private List<Integer> cluster;
+  // one byte per point for k <= 256 - a List<Integer> was far too heavy for large data
+  private Assignments cluster;
+  // how many points changed cluster in the last assignment step
+  private int changed;
   //  private Tuple[] center;
-  // turned out i needed to check whether this list contains certain points
-  private List<Tuple> center;
+  // interleaved x, y of each center; turned out a flat array is much cheaper than Tuples
+  private double[] center;
+  // single precision copy of the centers, only used when the data is stored as floats
+  private float[] centerF;
   private double error;
+  private boolean singlePrecision;
+  // per-cluster sums and sizes, kept across iterations for the incremental center update
+  private double[] clusterSum;
+  private int[] clusterSize;
+  // per-cluster sums of the weights, only for weighted data
+  private double[] clusterWeight;
+  // the partial results of the blocks in flight, allocated once per execution and reused
+  // by every pass: one row per block that may run at the same time, not one per block
+  private double[][] blockSums;
+  private double[][] blockErrors;
+  private boolean incremental;
+  private Convergence convergence;
+  private double changeTolerance;
+  private int iterations;
+  private boolean filtering;
+  private KMeansListener listener;
+  // the final centers, for nearestCluster
+  private KMeansModel model;
+  // the budget of an execution: at most this many iterations, and this long (0 for no limit)
+  private int maxIterations;
+  private long timeLimitNanos;
+  // the executions in progress; each one trains a copy of this object, so that a
+  // cancelled execution has its own flag and leaves the last model in place
+  private final Set<KMeansImpl> running = ConcurrentHashMap.newKeySet();
+  // set from another thread to stop the execution of this copy
+  private volatile boolean cancelled;
+  // the seed of the initial centers, if set
+  private long seed;
+  private boolean seeded;
+  private int parallelism;
+  private EmptyClusterRepair emptyClusterRepair;
+  // how many empty clusters the last execution repaired
+  private int repairs;
+
+  /**
+   * The criteria that decide when the algorithm has converged.
+   */
+  public enum Convergence {
+    /**
+     * Stop when the relative change of the mean distance to the centers falls below 0.01%.
+     */
+    ERROR,
+    /**
+     * Stop when the fraction of points that changed cluster falls below a tolerance.
+     */
+    CHANGES
+  }
+
+  /**
+   * The ways to give a cluster that lost all its points a new center, instead of dividing
+   * by zero. Either way the cluster takes points away from where the fit is worst.
+   */
+  public enum EmptyClusterRepair {
+    /**
+     * Move the center onto the point farthest from its own center.
+     */
+    FARTHEST_POINT,
+    /**
+     * Split the largest cluster: move the center onto its point farthest from its center.
+     */
+    SPLIT_LARGEST
+  }
 
   /**
    * Construct a KMeansImpl object.
@@ -39,9 +123,13 @@ public class KMeansImpl implements Algorithm  {
 
     if (k > 0) {
       this.k = k;
-      this.cluster = new ArrayList<Integer>();
-      this.center = new ArrayList<Tuple>();
+      this.cluster = new Assignments(0, k);
+      this.center = new double[0];
       this.error = Double.POSITIVE_INFINITY;
+      this.convergence = Convergence.ERROR;
+      this.maxIterations = 200;
+      this.parallelism = 1;
+      this.emptyClusterRepair = EmptyClusterRepair.FARTHEST_POINT;
     }
     else {
       throw new IllegalArgumentException("k cannot be non-positive!");
@@ -55,123 +143,831 @@ public class KMeansImpl implements Algorithm  {
    * @return the cluster assignment.
    */
   public List<Integer> getCluster() {
+    return this.cluster.asList();
+  }
+
+  /**
+   * Get the cluster assignment in its compact primitive form.
+   * @return the cluster assignment.
+   */
+  public Assignments getAssignments() {
     return this.cluster;
   }
 
+  /**
+   * Get the number of points that changed cluster in the last iteration.
+   * @return the number of reassigned points
+   */
+  public int getChanged() {
+    return this.changed;
+  }
+
 //  public List<Tuple> getCenter() {
 //    return this.center;
 //  }
 
+  /**
+   * Use single precision storage for the data and the centers.
+   * The sums that produce new centers are still accumulated in double precision.
+   * @param singlePrecision whether to store coordinates as floats
+   */
+  public void setSinglePrecision(boolean singlePrecision) {
+    this.singlePrecision = singlePrecision;
+  }
+
+  /**
+   * Choose how convergence is decided.
+   * With CHANGES, the mean distance is never computed, which saves a full pass over the data
+   * in every iteration.
+   * @param convergence the convergence criterion
+   * @param changeTolerance for CHANGES, the fraction of points that may still change cluster
+   *                        in an iteration that counts as converged; ignored for ERROR
+   */
+  public void setConvergence(Convergence convergence, double changeTolerance)
+          throws IllegalArgumentException {
+    if (convergence == null || changeTolerance < 0 || changeTolerance >= 1) {
+      throw new IllegalArgumentException("change tolerance has to be in [0, 1)!");
+    }
+    this.convergence = convergence;
+    this.changeTolerance = changeTolerance;
+  }
+
+  /**
+   * Update the centers incrementally: after the first iteration, only the sums of the
+   * clusters that points moved between are adjusted, instead of summing every cluster again.
+   * Weighted data is always summed from scratch.
+   * @param incremental whether to update the centers incrementally
+   */
+  public void setIncrementalUpdate(boolean incremental) {
+    this.incremental = incremental;
+  }
+
+  /**
+   * Use the filtering algorithm: a k-d tree is built over the data once, and every iteration
+   * prunes the candidate centers per subtree, so that whole subtrees are assigned to a center
+   * at once. This pays off for large data with well separated clusters; the tree works in
+   * double precision regardless of the precision of the data, and is not used for weighted data.
+   * @param filtering whether to use the filtering algorithm
+   */
+  public void setFiltering(boolean filtering) {
+    this.filtering = filtering;
+  }
+
+  /**
+   * Seed the choice of the initial centers, so that runs on the same data are reproducible.
+   * Without a seed, every run starts from different centers.
+   * @param seed the seed
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+    this.seeded = true;
+  }
+
+  /**
+   * Set the number of threads that assign the points and sum up the clusters.
+   * The data is split into fixed-size blocks whose sums are added in block order, so a
+   * seeded run gives bit-identical centers for any number of threads. The filtering and
+   * incremental modes run on one thread.
+   * @param parallelism the number of threads, 1 by default
+   */
+  public void setParallelism(int parallelism) throws IllegalArgumentException {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism has to be positive!");
+    }
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Choose how a cluster that lost all its points gets a new center. The repair happens
+   * between two iterations, and an iteration with a repair never counts as converged.
+   * @param repair the repair strategy, FARTHEST_POINT by default
+   */
+  public void setEmptyClusterRepair(EmptyClusterRepair repair) throws IllegalArgumentException {
+    if (repair == null) {
+      throw new IllegalArgumentException("a repair strategy is needed!");
+    }
+    this.emptyClusterRepair = repair;
+  }
+
+  /**
+   * Get the number of empty clusters the last execution repaired.
+   * @return the number of repairs
+   */
+  public int getRepairs() {
+    return repairs;
+  }
+
+  /**
+   * Set a listener to be notified after every iteration, or null for none.
+   * Together with the iteration budget, this reports the progress of an execution.
+   * @param listener the listener
+   */
+  public void setListener(KMeansListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Set the most iterations an execution may take before it stops with the centers it has.
+   * @param maxIterations the number of iterations, 200 by default
+   */
+  public void setMaxIterations(int maxIterations) throws IllegalArgumentException {
+    if (maxIterations <= 0) {
+      throw new IllegalArgumentException("at least one iteration is needed!");
+    }
+    this.maxIterations = maxIterations;
+  }
+
+  /**
+   * Set how long an execution may take. When the time is up, the execution stops after the
+   * current iteration with the centers it has - each iteration lowers the cost, so these are
+   * the best found so far - and the model is marked as not converged.
+   * The first iteration always runs, so that there is a model.
+   * @param limit the time limit, 0 for none
+   * @param unit the unit of the limit
+   */
+  public void setTimeLimit(long limit, TimeUnit unit) throws IllegalArgumentException {
+    if (limit < 0) {
+      throw new IllegalArgumentException("the time limit cannot be negative!");
+    }
+    this.timeLimitNanos = unit.toNanos(limit);
+  }
+
+  /**
+   * Stop the execution in progress, from any thread. The execution notices it between two
+   * iterations and throws a CancellationException, leaving the previous model in place.
+   * Interrupting the executing thread has the same effect.
+   */
+  public void cancel() {
+    for (KMeansImpl run : running) {
+      run.cancelled = true;
+    }
+  }
+
+  /**
+   * Execute the algorithm on another thread.
+   * Cancelling the returned future cancels the execution, as cancel does.
+   * @param data the data to cluster
+   * @param executor where to run the execution
+   * @return the future trained model
+   */
+  public CompletableFuture<KMeansModel> executeAsync(PackedTuples data, Executor executor) {
+    CompletableFuture<KMeansModel> future = new CompletableFuture<KMeansModel>();
+    // in progress from now on, so that cancel reaches it while it waits for the executor
+    KMeansImpl run = newRun();
+    running.add(run);
+    future.whenComplete((result, failure) -> {
+      if (future.isCancelled()) {
+        run.cancelled = true;
+      }
+    });
+    try {
+      executor.execute(() -> {
+        if (future.isCancelled()) {
+          running.remove(run);
+          return;
+        }
+        try {
+          execute(data, run);
+          future.complete(run.model);
+        } catch (RuntimeException | Error e) {
+          future.completeExceptionally(e);
+        }
+      });
+    } catch (RuntimeException e) {
+      running.remove(run);
+      throw e;
+    }
+    return future;
+  }
+
+  /**
+   * Execute the algorithm on the common fork-join pool.
+   * @param data the data to cluster
+   * @return the future trained model
+   */
+  public CompletableFuture<KMeansModel> executeAsync(ListOfTuplesImpl data) {
+    return executeAsync(data.pack(singlePrecision), ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Stop if the execution was cancelled.
+   */
+  private void checkCancelled() throws CancellationException {
+    if (cancelled || Thread.currentThread().isInterrupted()) {
+      throw new CancellationException("k-means was cancelled");
+    }
+  }
+
+  /**
+   * Check whether another iteration fits in the budget.
+   * @param iteration the index of the next iteration
+   * @param start when the execution started, from System.nanoTime
+   * @return true if the next iteration may run
+   */
+  private boolean withinBudget(int iteration, long start) {
+    if (iteration == 0) {
+      return true;
+    }
+    return iteration < maxIterations
+            && (timeLimitNanos == 0 || System.nanoTime() - start < timeLimitNanos);
+  }
+
+  /**
+   * Read the clock, but only if there is a listener to report the time to.
+   * @return the current time in nanoseconds, or 0 without a listener
+   */
+  private long now() {
+    return listener != null ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Find the cluster a new point belongs to, i.e. the closest center of the last execution.
+   * @param x the x coordinate of the point
+   * @param y the y coordinate of the point
+   * @return the index of the closest cluster
+   */
+  public int nearestCluster(double x, double y) throws IllegalStateException {
+    return getModel().predict(x, y);
+  }
+
+  /**
+   * Get the trained model of the last execution, to assign new points without retraining.
+   * @return the trained model
+   */
+  public KMeansModel getModel() throws IllegalStateException {
+    if (model == null) {
+      throw new IllegalStateException("the algorithm has not been executed yet!");
+    }
+    return model;
+  }
+
+  /**
+   * Get the number of iterations the last execution took.
+   * @return the number of iterations
+   */
+  public int getIterations() {
+    return this.iterations;
+  }
+
   /**
    * Generate centers, bounded by the data.
    * @param data the data this algorithm is operating on.
    */
-  private void generateCenter(List<Tuple> data) {
+  private void generateCenter(PackedTuples data) throws IllegalArgumentException {
+    int[] picked = pickCenters(data.size());
+    for (int i = 0; i < k; i++) {
+      setCenter(i, data.getX(picked[i]), data.getY(picked[i]));
+    }
+  }
+
+  /**
+   * Pick the indices of k distinct data points to start the centers from.
+   * @param size the number of data points
+   * @return the indices of the picked data points
+   */
+  private int[] pickCenters(int size) throws IllegalArgumentException {
+    if (size < k) {
+      throw new IllegalArgumentException("k cannot exceed the number of data points!");
+    }
+
+    /*
+     * a generator of this run only - the global one behind Math.random is shared and locked
+     */
+    SplittableRandom random = seeded ? new SplittableRandom(seed) : new SplittableRandom();
+    int[] picked = new int[k];
     int i = 0;
     while (i < k) {
-      int newCenter = (int) (Math.random() * data.size());
-      while (center.contains(data.get(newCenter))) {
-        // make sure that we don't get duplicate centers - this would mess up the clusters
-        newCenter = (int) (Math.random() * data.size());
+      int newCenter = random.nextInt(size);
+      // make sure that we don't get duplicate centers - this would mess up the clusters
+      boolean duplicate = false;
+      for (int j = 0; j < i; j++) {
+        if (picked[j] == newCenter) {
+          duplicate = true;
+          break;
+        }
+      }
+      if (duplicate) {
+        continue;
       }
-      center.add(data.get(newCenter));
+      picked[i] = newCenter;
       i++;
     }
+    return picked;
   }
 
+  /**
+   * Set the i-th center, keeping the single precision copy in sync.
+   * @param i the index of the center
+   * @param x the x coordinate of the center
+   * @param y the y coordinate of the center
+   */
+  private void setCenter(int i, double x, double y) {
+    center[2 * i] = x;
+    center[2 * i + 1] = y;
+    if (centerF != null) {
+      centerF[2 * i] = (float) x;
+      centerF[2 * i + 1] = (float) y;
+    }
+  }
 
   /**
-   * Assign clusters to the data, based on the current centers.
+   * Find the index of the center closest to (x, y).
+   * @param x the x coordinate
+   * @param y the y coordinate
+   * @param center the interleaved coordinates of the centers
+   * @return the index of the closest center
+   */
+  static int nearest(double x, double y, double[] center) {
+    int best = 0;
+    double bestDist = Double.POSITIVE_INFINITY;
+    for (int j = 0; j < center.length; j += 2) {
+      double diffX = x - center[j];
+      double diffY = y - center[j + 1];
+      double dist = diffX * diffX + diffY * diffY;
+      // strict comparison, so that ties go to the first center like Tuple.minDistance
+      if (dist < bestDist) {
+        bestDist = dist;
+        best = j >> 1;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Single precision version of nearest.
+   * @param x the x coordinate
+   * @param y the y coordinate
+   * @param center the interleaved coordinates of the centers
+   * @return the index of the closest center
+   */
+  static int nearest(float x, float y, float[] center) {
+    int best = 0;
+    float bestDist = Float.POSITIVE_INFINITY;
+    for (int j = 0; j < center.length; j += 2) {
+      float diffX = x - center[j];
+      float diffY = y - center[j + 1];
+      float dist = diffX * diffX + diffY * diffY;
+      if (dist < bestDist) {
+        bestDist = dist;
+        best = j >> 1;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Find the index of the center closest to the i-th point, in the precision of the data.
    * @param data the data this algorithm is operating on.
+   * @param i the index of the point
+   * @return the index of the closest center
    */
-  private void assignCluster(List<Tuple> data) { // should i specify the List<Tuple> center?
+  private int nearest(PackedTuples data, int i) {
+    float[] coordsF = data.floats();
+    if (coordsF != null) {
+      return nearest(coordsF[2 * i], coordsF[2 * i + 1], centerF);
+    }
+    double[] coords = data.doubles();
+    return nearest(coords[2 * i], coords[2 * i + 1], center);
+  }
+
+
+  /**
+   * Assign clusters to the data, based on the current centers.
+   * @param data the data this algorithm is operating on
+   * @param firstRound whether this is the first round of cluster assignment
+   */
+  private void assignCluster(PackedTuples data, boolean firstRound) {
+    int count = 0;
+    boolean moveSums = incremental && !firstRound && clusterWeight == null;
     for (int i = 0; i < data.size(); i++) {
 
-      int clusterAssignment = data.get(i).minDistance(center);
+      int clusterAssignment = nearest(data, i);
+      int previous = cluster.get(i);
 
-      /*
-       * if we're doing the first round of cluster assignment
-       */
-      if (cluster.size() < data.size()) {
-        cluster.add(clusterAssignment);
-      }
-      /*
-       * else modify the cluster assignment list
-       */
-      else {
-        cluster.set(i, clusterAssignment);
+      if (cluster.set(i, clusterAssignment)) {
+        count++;
+        if (moveSums) {
+          /*
+           * move the point's contribution from its old cluster to its new one
+           */
+          double x = data.getX(i);
+          double y = data.getY(i);
+          clusterSum[2 * previous] -= x;
+          clusterSum[2 * previous + 1] -= y;
+          clusterSize[previous]--;
+          clusterSum[2 * clusterAssignment] += x;
+          clusterSum[2 * clusterAssignment + 1] += y;
+          clusterSize[clusterAssignment]++;
+        }
       }
     }
+
+    /*
+     * in the first round every point gets its cluster for the first time
+     */
+    changed = firstRound ? data.size() : count;
   }
 
 
   /**
    * Update the centers, based on the current cluster assignments.
    * @param data the data this algorithm is operating on.
+   * @param firstRound whether this is the first round of center updates
    */
-  private void updateCenter(List<Tuple> data) {
+  private void updateCenter(PackedTuples data, boolean firstRound) {
 
     /*
-     * i need to keep track of how many points are in each cluster
+     * the incremental mode already moved the sums while assigning the clusters
      */
-    int[] clusterSize = new int[k];
-    Tuple[] clusterSum = new Tuple[k];
+    if (!incremental || firstRound || clusterWeight != null) {
+      sumClusters(data);
+    }
+
+    divideSums();
+
+  }
+
+  /**
+   * Update the center array from the cluster sums and sizes.
+   * An empty cluster keeps its center until repairEmptyClusters moves it.
+   */
+  private void divideSums() {
     for (int i = 0; i < k; i++) {
-      clusterSum[i] = new Tuple(0, 0);
+      double size = clusterWeight != null ? clusterWeight[i] : clusterSize[i];
+      if (clusterSize[i] > 0 && size > 0) {
+        setCenter(i, clusterSum[2 * i] / size, clusterSum[2 * i + 1] / size);
+      }
     }
+  }
 
-    /*
-     * CALCULATE NEW CENTER
+  /**
+   * FarthestSearch scans the data for the points farthest from their centers.
+   * @param <E> the exception scanning may throw
+   */
+  private interface FarthestSearch<E extends Exception> {
+    /**
+     * Scan the data, like farthest does on each chunk.
+     * @param slot for every cluster, its entry in best, or -1 to skip it; null to keep the
+     *             farthest points of all clusters together
+     * @param best the squared distances and the coordinates of the candidates; updated
+     * @throws E if scanning fails
      */
-    for (int i = 0; i < data.size(); i++) {
+    void search(int[] slot, double[] best) throws E;
+  }
+
+  /**
+   * Give every empty cluster a new center, by the chosen repair strategy. One scan over
+   * the data collects a candidate for every empty cluster.
+   * @param search the scan over the data
+   * @param <E> the exception scanning may throw
+   * @return true if a center moved
+   * @throws E if scanning fails
+   */
+  private <E extends Exception> boolean repairEmptyClusters(FarthestSearch<E> search) throws E {
+    int[] empty = new int[k];
+    int m = 0;
+    for (int c = 0; c < k; c++) {
+      if (clusterSize[c] == 0) {
+        empty[m++] = c;
+      }
+    }
+    if (m == 0) {
+      return false;
+    }
+    int[] slot = null;
+    if (emptyClusterRepair == EmptyClusterRepair.SPLIT_LARGEST) {
       /*
-       * check which cluster the current Tuple belongs to;
-       * add that to the corresponding center
+       * the m largest clusters with a point to spare, largest first
        */
+      slot = new int[k];
+      Arrays.fill(slot, -1);
+      int splits = 0;
+      while (splits < m) {
+        int largest = -1;
+        for (int c = 0; c < k; c++) {
+          if (slot[c] < 0 && clusterSize[c] > 1
+                  && (largest < 0 || clusterSize[c] > clusterSize[largest])) {
+            largest = c;
+          }
+        }
+        if (largest < 0) {
+          break;
+        }
+        slot[largest] = splits++;
+      }
+      m = splits;
+    }
 
-      int clusterAssignment = cluster.get(i); // the cluster assignment of the current data point
-      // add the current Tuple to the cluster sum in its right cluster
-      clusterSum[clusterAssignment] = clusterSum[clusterAssignment].add(data.get(i));
-      // keep track of the number of data points
-      clusterSize[cluster.get(i)]++;
+    double[] best = new double[3 * m];
+    search.search(slot, best);
+    int moved = reseed(best, empty, center);
+    for (int r = 0; r < moved; r++) {
+      // for the single precision copy
+      setCenter(empty[r], center[2 * empty[r]], center[2 * empty[r] + 1]);
+    }
+    repairs += moved;
+    return moved > 0;
+  }
+
+  /**
+   * Move the centers of empty clusters onto candidate points, skipping the candidates that
+   * sit on their center or on a center moved before them.
+   * @param best the squared distances and the coordinates of the candidates
+   * @param empty the empty clusters, in the order they are given a candidate
+   * @param center the interleaved x- and y-coordinates of the centers; updated
+   * @return the number of centers moved, those of the first empty clusters
+   */
+  static int reseed(double[] best, int[] empty, double[] center) {
+    int moved = 0;
+    for (int j = 0; j < best.length / 3; j++) {
+      double x = best[3 * j + 1];
+      double y = best[3 * j + 2];
+      double dist = best[3 * j];
+      for (int r = 0; r < moved && dist > 0; r++) {
+        double diffX = x - center[2 * empty[r]];
+        double diffY = y - center[2 * empty[r] + 1];
+        dist = Math.min(dist, diffX * diffX + diffY * diffY);
+      }
+      // zero if the point sits on a center, or was taken already: there is nothing to take away
+      if (dist > 0) {
+        center[2 * empty[moved]] = x;
+        center[2 * empty[moved] + 1] = y;
+        moved++;
+      }
+    }
+    return moved;
+  }
+
+  /**
+   * Find the points farthest from their centers in one chunk of the data: either the
+   * farthest point of every cluster with a slot, or the farthest points of all clusters,
+   * kept in best from the farthest down.
+   * @param chunk the points
+   * @param offset the index of the first point of the chunk in the whole dataset
+   * @param slot for every cluster, its entry in best, or -1 to skip it; null for all clusters
+   * @param best the squared distances and the coordinates of the candidates; updated
+   */
+  private void farthest(PackedTuples chunk, int offset, int[] slot, double[] best) {
+    farthest(chunk, offset, cluster, center, slot, best);
+  }
+
+  /**
+   * Find the points farthest from their centers in one chunk of the data, as above.
+   * @param chunk the points
+   * @param offset the index of the first point of the chunk in the assignments
+   * @param cluster the assignments
+   * @param center the interleaved x- and y-coordinates of the centers
+   * @param slot for every cluster, its entry in best, or -1 to skip it; null for all clusters
+   * @param best the squared distances and the coordinates of the candidates; updated
+   */
+  static void farthest(PackedTuples chunk, int offset, Assignments cluster, double[] center,
+                       int[] slot, double[] best) {
+    int m = best.length / 3;
+    for (int i = 0; i < chunk.size(); i++) {
+      int c = cluster.get(offset + i);
+      int j = slot != null ? slot[c] : m - 1;
+      if (j < 0) {
+        continue;
+      }
+      double x = chunk.getX(i);
+      double y = chunk.getY(i);
+      double diffX = x - center[2 * c];
+      double diffY = y - center[2 * c + 1];
+      double dist = diffX * diffX + diffY * diffY;
+      if (slot == null) {
+        offer(best, dist, x, y);
+      }
+      else if (dist > best[3 * j]) {
+        best[3 * j] = dist;
+        best[3 * j + 1] = x;
+        best[3 * j + 2] = y;
+      }
+    }
+  }
 
+  /**
+   * Insert a point into candidates sorted from the farthest down, if it is farther than the
+   * last one; ties keep the candidate found first.
+   * @param best the squared distances and the coordinates of the candidates; updated
+   * @param dist the squared distance of the point
+   * @param x the x coordinate of the point
+   * @param y the y coordinate of the point
+   */
+  static void offer(double[] best, double dist, double x, double y) {
+    int j = best.length / 3 - 1;
+    if (j < 0 || dist <= best[3 * j]) {
+      return;
+    }
+    for (; j > 0 && dist > best[3 * (j - 1)]; j--) {
+      System.arraycopy(best, 3 * (j - 1), best, 3 * j, 3);
     }
+    best[3 * j] = dist;
+    best[3 * j + 1] = x;
+    best[3 * j + 2] = y;
+  }
+
+  /**
+   * Sum up every cluster from scratch, based on the current cluster assignments.
+   * @param data the data this algorithm is operating on.
+   */
+  private void sumClusters(PackedTuples data) {
 
     /*
-     * update the center array
+     * i need to keep track of how many points are in each cluster;
+     * the sums stay in double precision even when the data is stored as floats
      */
-    for (int i = 0; i < k; i++) {
-      center.set(i, clusterSum[i].divide(clusterSize[i]));
+    Arrays.fill(clusterSize, 0);
+    Arrays.fill(clusterSum, 0);
+
+    double[] weights = data.weights();
+    if (weights != null) {
+      /*
+       * every point counts as much as its weight
+       */
+      Arrays.fill(clusterWeight, 0);
+      for (int i = 0; i < data.size(); i++) {
+        int c = cluster.get(i);
+        clusterSum[2 * c] += weights[i] * data.getX(i);
+        clusterSum[2 * c + 1] += weights[i] * data.getY(i);
+        clusterSize[c]++;
+        clusterWeight[c] += weights[i];
+      }
+      return;
     }
 
+    /*
+     * CALCULATE NEW CENTER
+     */
+    for (int i = 0; i < data.size(); i++) {
+      int clusterAssignment = cluster.get(i); // the cluster assignment of the current data point
+      // add the current point to the cluster sum in its right cluster
+      clusterSum[2 * clusterAssignment] += data.getX(i);
+      clusterSum[2 * clusterAssignment + 1] += data.getY(i);
+      // keep track of the number of data points
+      clusterSize[clusterAssignment]++;
+    }
   }
 
 
   /**
-   * Calculate the new error based on the current cluster assignments and centers.
-   * @param data the data this algorithm is operating on.
-   * @return the new error
+   * Run a task on every block of the data, on the pool if there is one, and reduce the
+   * partial results in block order. The blocks go in windows of as many blocks as there
+   * are rows, so the partial results take memory in proportion to the threads, not the data.
+   * @param n the number of points
+   * @param pool the threads, or null for this thread only
+   * @param rows where the blocks of a window put their partial results
+   * @param task clears a row and fills in the partial result of the block with the given index
+   * @param reduce takes in the partial result of a block, on this thread
    */
-  private double newError(List<Tuple> data) {
-    double newerror = 0;
-    for (int i = 0; i < data.size(); i++) {
-      newerror = newerror + data.get(i).eucliDistance(center.get(cluster.get(i)));
+  private static void forEachBlock(int n, ExecutorService pool, double[][] rows,
+                                   ObjIntConsumer<double[]> task, Consumer<double[]> reduce)
+          throws IllegalStateException {
+    int blocks = (n + BLOCK - 1) / BLOCK;
+    int window = rows.length;
+    List<Future<?>> futures = new ArrayList<Future<?>>(window);
+    for (int first = 0; first < blocks; first += window) {
+      int last = Math.min(blocks, first + window);
+      if (pool == null) {
+        for (int b = first; b < last; b++) {
+          task.accept(rows[b - first], b);
+        }
+      }
+      else {
+        futures.clear();
+        for (int b = first; b < last; b++) {
+          int block = b;
+          double[] row = rows[b - first];
+          futures.add(pool.submit(() -> task.accept(row, block)));
+        }
+        try {
+          for (Future<?> future : futures) {
+            future.get();
+          }
+        } catch (InterruptedException e) {
+          for (Future<?> future : futures) {
+            future.cancel(false);
+          }
+          Thread.currentThread().interrupt();
+          throw new CancellationException("k-means was interrupted");
+        } catch (ExecutionException e) {
+          throw new IllegalStateException("a block of points failed", e.getCause());
+        }
+      }
+      for (int b = first; b < last; b++) {
+        reduce.accept(rows[b - first]);
+      }
+    }
+  }
+
+  /**
+   * Assign clusters to the data and sum them up, in one pass over fixed-size blocks.
+   * @param data the data this algorithm is operating on
+   * @param firstRound whether this is the first round of cluster assignment
+   * @param pool the threads, or null for this thread only
+   */
+  private void assignBlocks(PackedTuples data, boolean firstRound, ExecutorService pool) {
+    int n = data.size();
+    double[] weights = data.weights();
+    Arrays.fill(clusterSum, 0);
+    Arrays.fill(clusterSize, 0);
+    if (clusterWeight != null) {
+      Arrays.fill(clusterWeight, 0);
     }
+    int[] count = new int[1];
+    forEachBlock(n, pool, blockSums, (partial, b) -> {
+      /*
+       * the sums, then the sizes, then the weights of the clusters, then the changes
+       */
+      Arrays.fill(partial, 0);
+      int end = Math.min(n, (b + 1) * BLOCK);
+      for (int i = b * BLOCK; i < end; i++) {
+        int c = nearest(data, i);
+        if (cluster.set(i, c)) {
+          partial[4 * k]++;
+        }
+        double w = weights != null ? weights[i] : 1;
+        partial[2 * c] += w * data.getX(i);
+        partial[2 * c + 1] += w * data.getY(i);
+        partial[2 * k + c]++;
+        partial[3 * k + c] += w;
+      }
+    }, partial -> {
+      for (int c = 0; c < k; c++) {
+        clusterSum[2 * c] += partial[2 * c];
+        clusterSum[2 * c + 1] += partial[2 * c + 1];
+        clusterSize[c] += (int) partial[2 * k + c];
+        if (clusterWeight != null) {
+          clusterWeight[c] += partial[3 * k + c];
+        }
+      }
+      count[0] += (int) partial[4 * k];
+    });
+    changed = firstRound ? n : count[0];
+    divideSums();
+  }
+
+  /**
+   * Calculate the (weighted) mean distance of the points to the centers of their clusters,
+   * block by block.
+   * @param data the data this algorithm is operating on.
+   * @param pool the threads, or null for this thread only
+   * @return the mean distance
+   */
+  private double meanDistance(PackedTuples data, ExecutorService pool) {
+    int n = data.size();
+    double[] sums = new double[2];
+    forEachBlock(n, pool, blockErrors, (partial, b) -> {
+      partial[0] = 0;
+      partial[1] = 0;
+      int end = Math.min(n, (b + 1) * BLOCK);
+      for (int i = b * BLOCK; i < end; i++) {
+        int c = cluster.get(i);
+        double diffX = data.getX(i) - center[2 * c];
+        double diffY = data.getY(i) - center[2 * c + 1];
+        double w = data.getWeight(i);
+        partial[0] += w * Math.sqrt(diffX * diffX + diffY * diffY);
+        partial[1] += w;
+      }
+    }, partial -> {
+      sums[0] += partial[0];
+      sums[1] += partial[1];
+    });
 
     /*
      * find the average error
      */
-    newerror = newerror / data.size();
+    return sums[0] / sums[1];
+  }
 
-    /*
-     * if error has not yet been initialized
-     */
-    if (error == Double.POSITIVE_INFINITY) {
-      return newerror;
-    }
-    else {
-      return Math.abs(newerror - error) / error;
+
+  /**
+   * Assign clusters to one chunk of an out-of-core dataset and add the chunk to the
+   * cluster sums, in a single pass over the chunk.
+   * @param chunk the Tuples of the chunk
+   * @param offset the index of the first Tuple of the chunk in the whole dataset
+   * @return the sum of the distances of the chunk's points to their previous centers
+   */
+  private double assignChunk(PackedTuples chunk, int offset) {
+    double distance = 0;
+    int count = 0;
+    for (int i = 0; i < chunk.size(); i++) {
+      int clusterAssignment = nearest(chunk, i);
+      if (cluster.set(offset + i, clusterAssignment)) {
+        count++;
+      }
+
+      double x = chunk.getX(i);
+      double y = chunk.getY(i);
+      clusterSum[2 * clusterAssignment] += x;
+      clusterSum[2 * clusterAssignment + 1] += y;
+      clusterSize[clusterAssignment]++;
+
+      double diffX = x - center[2 * clusterAssignment];
+      double diffY = y - center[2 * clusterAssignment + 1];
+      distance += Math.sqrt(diffX * diffX + diffY * diffY);
     }
+    changed += count;
+    return distance;
   }
 
 
@@ -182,60 +978,323 @@ public class KMeansImpl implements Algorithm  {
    * @return true if the cluster assignment is correct; false otherwise
    */
   public boolean checkCluster(ListOfTuplesImpl data) {
+    return report(data).isValid();
+  }
+
+  /**
+   * Check the cluster assignment of the last execution and measure its quality, in one
+   * pass over the data on as many threads as the algorithm uses.
+   * @param data the data the algorithm was executed on
+   * @return the report
+   */
+  public ClusterReport report(ListOfTuplesImpl data) {
+
+    /*
+     * compare in the same precision the clusters were assigned in,
+     * otherwise near-ties could be flagged as wrong
+     */
+    return report(data.pack(singlePrecision));
+  }
+
+  /**
+   * Check the cluster assignment of the last execution on packed data.
+   * @param data the data the algorithm was executed on
+   * @return the report
+   */
+  public ClusterReport report(PackedTuples data) throws IllegalArgumentException {
+    if (data.size() != cluster.size()) {
+      throw new IllegalArgumentException("the data is not the data that was clustered!");
+    }
+    ClusterReport report = new ClusterReport(center, cluster);
+    FusedScan scan = new FusedScan().add(report);
+    scan.setParallelism(parallelism);
+    scan.execute(data);
+    return report;
+  }
+
+  @Override
+  public void execute(ListOfTuplesImpl data) { // write this or List<Tuple> data?
+    execute(data.pack(singlePrecision));
+  }
+
+  /**
+   * Execute the algorithm out-of-core on a file-backed dataset.
+   * Only the centers, the cluster sums and the compact assignments are kept in memory;
+   * every iteration streams the file once, chunk by chunk, assigning and summing in one pass.
+   *
+   * Since there is no second pass, the ERROR criterion uses the mean distance of each point
+   * to the center it was assigned to, i.e. the error of the previous centers.
+   *
+   * The chunks are assigned on one thread, and every center is summed from scratch in every
+   * iteration: the parallelism, filtering and incremental update settings do not apply here.
+   * @param data the file-backed data to cluster
+   * @param chunkSize the number of Tuples to hold in memory at a time
+   * @throws IOException if the file cannot be read
+   */
+  public void execute(TupleFile data, int chunkSize) throws IOException {
+    if (data.size() > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("too many data points for a single KMeansImpl!");
+    }
+    KMeansImpl run = newRun();
+    running.add(run);
+    try {
+      run.train(data, chunkSize);
+    } finally {
+      running.remove(run);
+    }
+    publish(run);
+  }
+
+  /**
+   * Train this copy out-of-core; see execute.
+   * @param data the file-backed data to cluster
+   * @param chunkSize the number of Tuples to hold in memory at a time
+   * @throws IOException if the file cannot be read
+   */
+  private void train(TupleFile data, int chunkSize) throws IOException {
+    int n = (int) data.size();
+    long began = System.nanoTime();
+    cluster = new Assignments(n, k);
+    center = new double[2 * k];
+    centerF = data.isSinglePrecision() ? new float[2 * k] : null;
+    clusterSum = new double[2 * k];
+    clusterSize = new int[k];
+    clusterWeight = null;
+    error = Double.POSITIVE_INFINITY;
 
-    List<Double> distance = new ArrayList<Double>();
+    int[] picked = pickCenters(n);
+    for (int i = 0; i < k; i++) {
+      Tuple t = data.get(picked[i]);
+      setCenter(i, t.getX(), t.getY());
+    }
+
+    double meanDistance = Double.POSITIVE_INFINITY;
+    double[] distance = new double[1];
+    int iteration = 0;
+    boolean converged = false;
+    while (!converged && withinBudget(iteration, began)) {
+      checkCancelled();
+      Arrays.fill(clusterSum, 0);
+      Arrays.fill(clusterSize, 0);
+      changed = 0;
+      distance[0] = 0;
+
+      long start = now();
+      data.forEachChunk(chunkSize,
+          (chunk, offset) -> distance[0] += assignChunk(chunk, (int) offset));
+      if (iteration == 0) {
+        changed = n;
+      }
 
-    for(int i = 0; i < data.getHead().size(); i++) {
-      distance.clear(); // clear the temporary distance list
-      Tuple dataPoint = data.getHead().get(i);
-      Tuple dataCenter;
+      long assigned = now();
+      divideSums();
+      long updated = now();
 
-      for (int j = 0; j < k; j++) {
-        dataCenter = center.get(j);
-        distance.add(dataPoint.eucliDistance(dataCenter));
+      if (convergence == Convergence.ERROR) {
+        double newMean = distance[0] / n;
+        error = meanDistance == Double.POSITIVE_INFINITY
+                ? newMean : Math.abs(newMean - meanDistance) / meanDistance;
+        meanDistance = newMean;
+        converged = iteration > 0 && error <= 0.0001;
+      }
+      else {
+        converged = changed <= changeTolerance * n;
+      }
+      if (repairEmptyClusters((slot, best) -> data.forEachChunk(chunkSize,
+          (chunk, offset) -> farthest(chunk, (int) offset, slot, best)))) {
+        converged = false;
       }
 
-      // check that this data is indeed closest to its own cluster's center
-      if (distance.indexOf(Collections.min(distance)) != cluster.get(i)) {
-        return false;
+      if (listener != null) {
+        // the error comes out of the assignment pass, so it takes no time of its own
+        listener.onIteration(new IterationStats(iteration, assigned - start, updated - assigned,
+                0, changed, convergence == Convergence.ERROR ? error : Double.NaN));
       }
+
+      iteration++;
     }
+    iterations = iteration;
+    model = new KMeansModel(center, iterations, changed, converged);
+  }
 
-    return true;
+  /**
+   * Execute the algorithm directly on packed data; the precision of the data decides
+   * the precision of the assignment step. Weighted data, e.g. a coreset from Sampling,
+   * is clustered by weighted means; the model then assigns the full data.
+   * @param data the data to cluster
+   */
+  public void execute(PackedTuples data) {
+    KMeansImpl run = newRun();
+    running.add(run);
+    execute(data, run);
   }
 
-  @Override
-  public void execute(ListOfTuplesImpl data) { // write this or List<Tuple> data?
+  /**
+   * Execute the algorithm with a given copy, and take its results if it was not cancelled.
+   * @param data the data to cluster
+   * @param run the copy that trains, already among the running ones; removed when done
+   */
+  private void execute(PackedTuples data, KMeansImpl run) {
+    try {
+      run.train(data);
+    } finally {
+      running.remove(run);
+    }
+    publish(run);
+  }
+
+  /**
+   * Copy the settings into a fresh object for one execution. The copy holds the centers
+   * and assignments while they are trained, so that this object keeps the results of the
+   * last finished execution until the new one is done.
+   * @return the copy
+   */
+  private KMeansImpl newRun() {
+    KMeansImpl run = new KMeansImpl(k);
+    run.singlePrecision = singlePrecision;
+    run.incremental = incremental;
+    run.convergence = convergence;
+    run.changeTolerance = changeTolerance;
+    run.filtering = filtering;
+    run.listener = listener;
+    run.maxIterations = maxIterations;
+    run.timeLimitNanos = timeLimitNanos;
+    run.seed = seed;
+    run.seeded = seeded;
+    run.parallelism = parallelism;
+    run.emptyClusterRepair = emptyClusterRepair;
+    return run;
+  }
+
+  /**
+   * Take the results of a finished execution.
+   * @param run the copy that trained them
+   */
+  private synchronized void publish(KMeansImpl run) {
+    cluster = run.cluster;
+    changed = run.changed;
+    center = run.center;
+    centerF = run.centerF;
+    error = run.error;
+    clusterSum = run.clusterSum;
+    clusterSize = run.clusterSize;
+    clusterWeight = run.clusterWeight;
+    iterations = run.iterations;
+    repairs = run.repairs;
+    model = run.model;
+  }
+
+  /**
+   * Train this copy on packed data; see execute.
+   * @param data the data to cluster
+   */
+  private void train(PackedTuples data) {
     if (k > 0) {
+      long began = System.nanoTime();
+      cluster = new Assignments(data.size(), k);
+      center = new double[2 * k];
+      centerF = data.isSinglePrecision() ? new float[2 * k] : null;
+      clusterSum = new double[2 * k];
+      clusterSize = new int[k];
+      clusterWeight = data.isWeighted() ? new double[k] : null;
+      error = Double.POSITIVE_INFINITY;
+
       /*
        * generate initial center first
        */
-      generateCenter(data.getHead());
+      generateCenter(data);
 
-      int iteration = 0;
-      /*
-       * while the error term is greater than 0.01% and iteration is less than 100, keep iterating.
-       */
-      while (error > 0.0001 && iteration < 200) {
+      KdTree tree = filtering && !data.isWeighted() ? new KdTree(data) : null;
+      boolean blocked = tree == null && !incremental;
+      ExecutorService pool = blocked && parallelism > 1 && data.size() > BLOCK
+              ? Executors.newFixedThreadPool(parallelism) : null;
+      // a few blocks per thread keep the threads busy between two reductions
+      int window = pool != null ? 4 * parallelism : 1;
+      blockSums = blocked ? new double[window][4 * k + 1] : null;
+      blockErrors = new double[window][2];
 
+      double meanDistance = Double.POSITIVE_INFINITY;
+      int iteration = 0;
+      boolean converged = false;
+      try {
         /*
-         * assign the clusters
+         * while not converged and within the budget (200 iterations by default), keep iterating.
          */
-        assignCluster(data.getHead());
+        while (!converged && withinBudget(iteration, began)) {
+          checkCancelled();
 
-        /*
-         * recalculate the center
-         */
-        updateCenter(data.getHead());
+          long start = now();
+          long assigned;
+          if (tree != null) {
+            /*
+             * assign the clusters and sum them up in one go, subtree by subtree
+             */
+            changed = tree.filter(center, clusterSum, clusterSize, cluster);
+            if (iteration == 0) {
+              changed = data.size();
+            }
+            assigned = now();
+            divideSums();
+          }
+          else if (blocked) {
+            /*
+             * assign the clusters and sum them up in one go, block by block
+             */
+            assignBlocks(data, iteration == 0, pool);
+            assigned = now();
+          }
+          else {
+            /*
+             * assign the clusters
+             */
+            assignCluster(data, iteration == 0);
+            assigned = now();
 
-        /*
-         * recalculate the error
-         */
-        error = newError(data.getHead());
+            /*
+             * recalculate the center
+             */
+            updateCenter(data, iteration == 0);
+          }
+          long updated = now();
+
+          if (convergence == Convergence.ERROR) {
+            /*
+             * recalculate the error, the relative change of the mean distance;
+             * converged when it changes by less than 0.01%
+             */
+            double newMean = meanDistance(data, pool);
+            error = meanDistance == Double.POSITIVE_INFINITY
+                    ? newMean : Math.abs(newMean - meanDistance) / meanDistance;
+            meanDistance = newMean;
+            converged = iteration > 0 && error <= 0.0001;
+          }
+          else {
+            /*
+             * converged when few enough points moved
+             */
+            converged = changed <= changeTolerance * data.size();
+          }
+          if (repairEmptyClusters((slot, best) -> farthest(data, 0, slot, best))) {
+            converged = false;
+          }
+
+          if (listener != null) {
+            boolean hasError = convergence == Convergence.ERROR;
+            listener.onIteration(new IterationStats(iteration, assigned - start,
+                    updated - assigned, hasError ? now() - updated : 0, changed,
+                    hasError ? error : Double.NaN));
+          }
 
-        iteration++;
+          iteration++;
+        }
+      } finally {
+        if (pool != null) {
+          pool.shutdown();
+        }
       }
+      iterations = iteration;
+      model = new KMeansModel(center, iterations, changed, converged);
     }
   }
 
-}
+}
\ No newline at end of file
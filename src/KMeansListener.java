@@ -0,0 +1,12 @@
+/**
+ * KMeansListener is notified after every iteration of KMeansImpl, to monitor how a run
+ * converges. Without a listener, KMeansImpl does not even read the clock.
+ */
+public interface KMeansListener {
+
+  /**
+   * Called after every iteration, on the thread that runs the algorithm.
+   * @param stats the statistics of the iteration
+   */
+  void onIteration(IterationStats stats);
+}
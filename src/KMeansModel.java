@@ -0,0 +1,156 @@
+/**
+ * KMeansModel is the result of a trained k-means algorithm: its centers.
+ *
+ * It only assigns new points to clusters, without retraining. The model is immutable and
+ * predictions do not allocate, so one model can serve many threads at once.
+ */
+public final class KMeansModel {
+  // above this many centers a k-d tree beats a linear scan over the centers
+  private static final int TREE_THRESHOLD = 32;
+
+  private final double[] center;
+  private final KdTree tree;
+  private final int iterations;
+  private final int changed;
+  private final boolean converged;
+
+  /**
+   * Construct a KMeansModel object without training statistics.
+   * @param center the interleaved x- and y-coordinates of the centers; copied
+   */
+  public KMeansModel(double[] center) throws IllegalArgumentException {
+    this(center, 0, 0);
+  }
+
+  /**
+   * Construct a KMeansModel object.
+   * @param center the interleaved x- and y-coordinates of the centers; copied
+   * @param iterations the number of iterations the training took
+   * @param changed the number of points that changed cluster in the last iteration
+   */
+  public KMeansModel(double[] center, int iterations, int changed)
+          throws IllegalArgumentException {
+    this(center, iterations, changed, true);
+  }
+
+  /**
+   * Construct a KMeansModel object.
+   * @param center the interleaved x- and y-coordinates of the centers; copied
+   * @param iterations the number of iterations the training took
+   * @param changed the number of points that changed cluster in the last iteration
+   * @param converged false if the training was stopped by its budget before converging
+   */
+  public KMeansModel(double[] center, int iterations, int changed, boolean converged)
+          throws IllegalArgumentException {
+    if (center.length == 0 || center.length % 2 != 0) {
+      throw new IllegalArgumentException("a model needs at least one (x, y) center!");
+    }
+    this.center = center.clone();
+    this.tree = getK() > TREE_THRESHOLD ? new KdTree(this.center) : null;
+    this.iterations = iterations;
+    this.changed = changed;
+    this.converged = converged;
+  }
+
+  /**
+   * Get the number of clusters.
+   * @return k
+   */
+  public int getK() {
+    return center.length / 2;
+  }
+
+  /**
+   * Get the number of iterations the training took.
+   * @return the number of iterations, 0 if unknown
+   */
+  public int getIterations() {
+    return iterations;
+  }
+
+  /**
+   * Get the number of points that changed cluster in the last training iteration.
+   * @return the number of reassigned points
+   */
+  public int getChanged() {
+    return changed;
+  }
+
+  /**
+   * Check whether the training converged, or was stopped early by its iteration or time
+   * budget; in that case the centers are the best found so far.
+   * @return true if the training converged
+   */
+  public boolean isConverged() {
+    return converged;
+  }
+
+  /**
+   * Getter for the x coordinate of a center.
+   * @param i the index of the center
+   * @return the x coordinate
+   */
+  public double getCenterX(int i) {
+    return center[2 * i];
+  }
+
+  /**
+   * Getter for the y coordinate of a center.
+   * @param i the index of the center
+   * @return the y coordinate
+   */
+  public double getCenterY(int i) {
+    return center[2 * i + 1];
+  }
+
+  /**
+   * Get a copy of the centers.
+   * @return the interleaved x- and y-coordinates of the centers
+   */
+  public double[] getCenters() {
+    return center.clone();
+  }
+
+  /**
+   * Find the cluster a point belongs to.
+   * @param x the x coordinate of the point
+   * @param y the y coordinate of the point
+   * @return the index of the closest center
+   */
+  public int predict(double x, double y) {
+    if (tree != null) {
+      return tree.nearest(x, y);
+    }
+    return KMeansImpl.nearest(x, y, center);
+  }
+
+  /**
+   * Find the clusters of a batch of points.
+   * @param xs the x coordinates of the points
+   * @param ys the y coordinates of the points
+   * @param out where to put the index of each point's closest center
+   */
+  public void predict(double[] xs, double[] ys, int[] out) throws IllegalArgumentException {
+    if (xs.length != ys.length || out.length < xs.length) {
+      throw new IllegalArgumentException("xs, ys and out have to be of the same length!");
+    }
+    for (int i = 0; i < xs.length; i++) {
+      out[i] = predict(xs[i], ys[i]);
+    }
+  }
+
+  /**
+   * Find the clusters of a batch of packed points.
+   * @param data the points
+   * @param out where to put the index of each point's closest center
+   */
+  public void predict(PackedTuples data, int[] out) throws IllegalArgumentException {
+    if (out.length < data.size()) {
+      throw new IllegalArgumentException("out is too short for the data!");
+    }
+    for (int i = 0; i < data.size(); i++) {
+      out[i] = predict(data.getX(i), data.getY(i));
+    }
+  }
+
+}
@@ -0,0 +1,400 @@
+import java.util.Arrays;
+
+/**
+ * KdTree is a 2-d tree over a set of points, stored in flat arrays.
+ *
+ * Besides nearest neighbour queries, every node keeps the bounding box, the coordinate sums
+ * and the number of the points below it, which is what the filtering k-means algorithm
+ * (Kanungo et al.) needs to assign whole subtrees to a center at once.
+ */
+public class KdTree {
+  private static final int LEAF_SIZE = 8;
+
+  // the points, reordered so that every node covers a contiguous range
+  private final double[] coords;
+  // original index of each reordered point
+  private final int[] index;
+
+  /*
+   * the nodes, one entry per node in each array
+   */
+  private final int[] start;
+  private final int[] end;
+  private final int[] left;
+  private final int[] right;
+  private final double[] minX;
+  private final double[] maxX;
+  private final double[] minY;
+  private final double[] maxY;
+  private final double[] sumX;
+  private final double[] sumY;
+  private int nodes;
+  private int depth;
+
+  /**
+   * Build a KdTree over the given points.
+   * @param data the points
+   */
+  public KdTree(PackedTuples data) {
+    int n = data.size();
+    coords = new double[2 * n];
+    index = new int[n];
+    for (int i = 0; i < n; i++) {
+      coords[2 * i] = data.getX(i);
+      coords[2 * i + 1] = data.getY(i);
+      index[i] = i;
+    }
+
+    // every leaf holds at least LEAF_SIZE / 2 points, so there are at most n / 4 leaves
+    int capacity = 2 * (n / (LEAF_SIZE / 2)) + 1;
+    start = new int[capacity];
+    end = new int[capacity];
+    left = new int[capacity];
+    right = new int[capacity];
+    minX = new double[capacity];
+    maxX = new double[capacity];
+    minY = new double[capacity];
+    maxY = new double[capacity];
+    sumX = new double[capacity];
+    sumY = new double[capacity];
+    build(0, n, 1);
+  }
+
+  /**
+   * Build a KdTree over interleaved center coordinates.
+   * @param center the interleaved x- and y-coordinates of the centers
+   */
+  public KdTree(double[] center) {
+    this(new PackedTuples(center));
+  }
+
+  /**
+   * Get the number of points in the tree.
+   * @return the number of points
+   */
+  public int size() {
+    return index.length;
+  }
+
+  /**
+   * Build the subtree over the reordered points [from, to).
+   * @param from the first point
+   * @param to one past the last point
+   * @param level the depth of this node
+   * @return the id of the node
+   */
+  private int build(int from, int to, int level) {
+    int node = nodes++;
+    depth = Math.max(depth, level);
+    start[node] = from;
+    end[node] = to;
+    left[node] = -1;
+    right[node] = -1;
+
+    double x0 = Double.POSITIVE_INFINITY;
+    double x1 = Double.NEGATIVE_INFINITY;
+    double y0 = Double.POSITIVE_INFINITY;
+    double y1 = Double.NEGATIVE_INFINITY;
+    double sx = 0;
+    double sy = 0;
+    for (int i = from; i < to; i++) {
+      double x = coords[2 * i];
+      double y = coords[2 * i + 1];
+      x0 = Math.min(x0, x);
+      x1 = Math.max(x1, x);
+      y0 = Math.min(y0, y);
+      y1 = Math.max(y1, y);
+      sx += x;
+      sy += y;
+    }
+    minX[node] = x0;
+    maxX[node] = x1;
+    minY[node] = y0;
+    maxY[node] = y1;
+    sumX[node] = sx;
+    sumY[node] = sy;
+
+    /*
+     * split along the wider side of the bounding box, at the median
+     */
+    if (to - from > LEAF_SIZE && (x1 > x0 || y1 > y0)) {
+      int dim = (x1 - x0 >= y1 - y0) ? 0 : 1;
+      int mid = (from + to) >>> 1;
+      select(from, to - 1, mid, dim);
+      left[node] = build(from, mid, level + 1);
+      right[node] = build(mid, to, level + 1);
+    }
+    return node;
+  }
+
+  /**
+   * Quickselect: reorder the points [from, to] so that the k-th one is in place along dim.
+   * @param from the first point
+   * @param to the last point (inclusive)
+   * @param k the position to put in place
+   * @param dim 0 for x, 1 for y
+   */
+  private void select(int from, int to, int k, int dim) {
+    while (to > from) {
+      double pivot = coords[2 * ((from + to) >>> 1) + dim];
+      int i = from;
+      int j = to;
+      while (i <= j) {
+        while (coords[2 * i + dim] < pivot) {
+          i++;
+        }
+        while (coords[2 * j + dim] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          swap(i, j);
+          i++;
+          j--;
+        }
+      }
+      if (k <= j) {
+        to = j;
+      }
+      else if (k >= i) {
+        from = i;
+      }
+      else {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Swap two reordered points.
+   * @param i the first point
+   * @param j the second point
+   */
+  private void swap(int i, int j) {
+    double x = coords[2 * i];
+    double y = coords[2 * i + 1];
+    coords[2 * i] = coords[2 * j];
+    coords[2 * i + 1] = coords[2 * j + 1];
+    coords[2 * j] = x;
+    coords[2 * j + 1] = y;
+    int t = index[i];
+    index[i] = index[j];
+    index[j] = t;
+  }
+
+  /**
+   * Find the point closest to (x, y).
+   * @param x the x coordinate
+   * @param y the y coordinate
+   * @return the original index of the closest point, or -1 if the tree is empty
+   */
+  public int nearest(double x, double y) {
+    if (index.length == 0) {
+      return -1;
+    }
+    return index[nearest(0, x, y, start[0])];
+  }
+
+  /**
+   * The recursive part of nearest; the near child is always visited first.
+   * @param node the node to search
+   * @param x the x coordinate
+   * @param y the y coordinate
+   * @param best the reordered position of the closest point found so far
+   * @return the reordered position of the closest point
+   */
+  private int nearest(int node, double x, double y, int best) {
+    double bestDist = distance(best, x, y);
+    // not >=, so that subtrees holding a tie are still searched for a smaller index
+    if (boxDistance(node, x, y) > bestDist) {
+      return best;
+    }
+    if (left[node] < 0) {
+      for (int i = start[node]; i < end[node]; i++) {
+        double dist = distance(i, x, y);
+        // ties go to the smallest original index, like a linear scan would
+        if (dist < bestDist || (dist == bestDist && index[i] < index[best])) {
+          bestDist = dist;
+          best = i;
+        }
+      }
+      return best;
+    }
+    int near = left[node];
+    int far = right[node];
+    if (boxDistance(far, x, y) < boxDistance(near, x, y)) {
+      near = right[node];
+      far = left[node];
+    }
+    best = nearest(near, x, y, best);
+    return nearest(far, x, y, best);
+  }
+
+  /**
+   * The squared distance from (x, y) to a reordered point.
+   * @param i the reordered position of the point
+   * @param x the x coordinate
+   * @param y the y coordinate
+   * @return the squared distance
+   */
+  private double distance(int i, double x, double y) {
+    double diffX = x - coords[2 * i];
+    double diffY = y - coords[2 * i + 1];
+    return diffX * diffX + diffY * diffY;
+  }
+
+  /**
+   * The squared distance from (x, y) to the bounding box of a node.
+   * @param node the node
+   * @param x the x coordinate
+   * @param y the y coordinate
+   * @return the squared distance, 0 if the point is inside the box
+   */
+  private double boxDistance(int node, double x, double y) {
+    double diffX = Math.max(0, Math.max(minX[node] - x, x - maxX[node]));
+    double diffY = Math.max(0, Math.max(minY[node] - y, y - maxY[node]));
+    return diffX * diffX + diffY * diffY;
+  }
+
+  /**
+   * One filtering k-means step: assign every point to its closest center and sum up the
+   * clusters, pruning centers per subtree so that whole subtrees are assigned at once.
+   * @param center the interleaved coordinates of the k centers
+   * @param clusterSum the per-cluster coordinate sums to fill (interleaved, overwritten)
+   * @param clusterSize the per-cluster sizes to fill (overwritten)
+   * @param cluster the assignments to update, indexed by the original point indices
+   * @return the number of points whose assignment changed
+   */
+  public int filter(double[] center, double[] clusterSum, int[] clusterSize,
+                    Assignments cluster) {
+    int k = center.length / 2;
+    Arrays.fill(clusterSum, 0);
+    Arrays.fill(clusterSize, 0);
+    if (index.length == 0) {
+      return 0;
+    }
+    // one candidate list per level, so the recursion does not allocate
+    int[][] candidates = new int[depth + 1][k];
+    for (int j = 0; j < k; j++) {
+      candidates[0][j] = j;
+    }
+    return filter(0, 0, k, center, candidates, clusterSum, clusterSize, cluster);
+  }
+
+  /**
+   * The recursive part of filter.
+   * @param node the node to filter
+   * @param level the depth of the node, which picks its candidate list
+   * @param count the number of candidates
+   * @param center the interleaved coordinates of the centers
+   * @param candidates the candidate lists
+   * @param clusterSum the per-cluster coordinate sums
+   * @param clusterSize the per-cluster sizes
+   * @param cluster the assignments
+   * @return the number of points whose assignment changed
+   */
+  private int filter(int node, int level, int count, double[] center, int[][] candidates,
+                     double[] clusterSum, int[] clusterSize, Assignments cluster) {
+    int[] z = candidates[level];
+    int changed = 0;
+
+    if (left[node] < 0) {
+      for (int i = start[node]; i < end[node]; i++) {
+        double x = coords[2 * i];
+        double y = coords[2 * i + 1];
+        int best = z[0];
+        double bestDist = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < count; c++) {
+          double diffX = x - center[2 * z[c]];
+          double diffY = y - center[2 * z[c] + 1];
+          double dist = diffX * diffX + diffY * diffY;
+          if (dist < bestDist || (dist == bestDist && z[c] < best)) {
+            bestDist = dist;
+            best = z[c];
+          }
+        }
+        clusterSum[2 * best] += x;
+        clusterSum[2 * best + 1] += y;
+        clusterSize[best]++;
+        if (cluster.set(index[i], best)) {
+          changed++;
+        }
+      }
+      return changed;
+    }
+
+    /*
+     * the candidate closest to the middle of the cell
+     */
+    double midX = 0.5 * (minX[node] + maxX[node]);
+    double midY = 0.5 * (minY[node] + maxY[node]);
+    int closest = z[0];
+    double closestDist = Double.POSITIVE_INFINITY;
+    for (int c = 0; c < count; c++) {
+      double diffX = midX - center[2 * z[c]];
+      double diffY = midY - center[2 * z[c] + 1];
+      double dist = diffX * diffX + diffY * diffY;
+      if (dist < closestDist) {
+        closestDist = dist;
+        closest = z[c];
+      }
+    }
+
+    /*
+     * drop every candidate that is farther than the closest one from every point of the cell
+     */
+    int[] kept = candidates[level + 1];
+    int keptCount = 0;
+    for (int c = 0; c < count; c++) {
+      if (z[c] == closest || !isFarther(z[c], closest, node, center)) {
+        kept[keptCount++] = z[c];
+      }
+    }
+
+    if (keptCount == 1) {
+      /*
+       * the whole subtree belongs to one center
+       */
+      clusterSum[2 * closest] += sumX[node];
+      clusterSum[2 * closest + 1] += sumY[node];
+      clusterSize[closest] += end[node] - start[node];
+      for (int i = start[node]; i < end[node]; i++) {
+        if (cluster.set(index[i], closest)) {
+          changed++;
+        }
+      }
+      return changed;
+    }
+
+    /*
+     * the children only write the lists below their own level, so both see the same candidates
+     */
+    changed += filter(left[node], level + 1, keptCount, center, candidates,
+            clusterSum, clusterSize, cluster);
+    changed += filter(right[node], level + 1, keptCount, center, candidates,
+            clusterSum, clusterSize, cluster);
+    return changed;
+  }
+
+  /**
+   * Check whether center a is farther than center b from every point in the cell of a node,
+   * by testing the corner of the cell that lies furthest in the direction from b to a.
+   * @param a the candidate center
+   * @param b the closest center
+   * @param node the node
+   * @param center the interleaved coordinates of the centers
+   * @return true if a can be pruned for this node
+   */
+  private boolean isFarther(int a, int b, int node, double[] center) {
+    double ax = center[2 * a];
+    double ay = center[2 * a + 1];
+    double bx = center[2 * b];
+    double by = center[2 * b + 1];
+    double vx = ax > bx ? maxX[node] : minX[node];
+    double vy = ay > by ? maxY[node] : minY[node];
+    double distA = (ax - vx) * (ax - vx) + (ay - vy) * (ay - vy);
+    double distB = (bx - vx) * (bx - vx) + (by - vy) * (by - vy);
+    // strictly farther, so that ties are still broken by the leaves like a linear scan
+    return distA > distB;
+  }
+
+}
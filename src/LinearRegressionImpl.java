@@ -1,11 +1,12 @@
-import java.util.List;
-
 /**
  * LinearRegressionImpl is an algorithm that fits a line to data.
  */
 public class LinearRegressionImpl implements Algorithm {
   private double slope;
   private double intercept;
+  private int count;
+  private double rSquared;
+  private double residualStdError;
 
   /**
    * Construct a LinearRegressionImpl object.
@@ -13,6 +14,8 @@ public class LinearRegressionImpl implements Algorithm {
   public LinearRegressionImpl() {
     this.slope = 0;
     this.intercept = 0;
+    this.rSquared = Double.NaN;
+    this.residualStdError = Double.NaN;
   }
 
   /**
@@ -32,117 +35,46 @@ public class LinearRegressionImpl implements Algorithm {
   }
 
   /**
-   * Calculate the sum of all x-coordinates.
-   * @param data the data this algorithm is operating on.
-   * @return the sum of all x-coordinates
+   * Get the fitted model, to predict y from x without refitting.
+   * @return the fitted model
    */
-  private double sumX(List<Tuple> data) {
-    double sum = 0;
-    for (Tuple t: data) {
-      sum = sum + t.getX();
-    }
-
-    return sum;
+  public LinearRegressionModel getModel() {
+    return new LinearRegressionModel(slope, intercept, count, rSquared, residualStdError);
   }
 
-  /**
-   * Calculate the sum of all y-coordinates.
-   * @param data the data this algorithm is operating on.
-   * @return the sum of all y-coordinates
-   */
-  private double sumY(List<Tuple> data) {
-    double sum = 0;
-    for (Tuple t: data) {
-      sum = sum + t.getY();
-    }
-
-    return sum;
-  }
-
-
-  /**
-   * Calculate the sum of the squares of all x-coordinates.
-   * @param data the data this algorithm is operating on.
-   * @return the sum
-   */
-  private double sumXSq(List<Tuple> data) {
-    double sum = 0;
-    for (Tuple t: data) {
-      sum = sum + t.getXSq();
+  @Override
+  public void execute(ListOfTuplesImpl data) {
+    /*
+     * one pass over centered sums, instead of a pass per raw sum
+     */
+    RegressionStats stats = new RegressionStats();
+    for (Tuple t : data.getHead()) {
+      stats.add(t.getX(), t.getY());
     }
-
-    return sum;
+    fit(stats);
   }
 
-
   /**
-   * Calculate the sum of multiplication of x- and y-coordinates.
-   * @param data the data this algorithm is operating on.
-   * @return the sum
+   * Fit a line directly to packed data, by weighted least squares if the data is weighted,
+   * e.g. a sample from Sampling.
+   * @param data the data to fit
    */
-  private double sumXY(List<Tuple> data) {
-    double sum = 0;
-    for (Tuple t: data) {
-      sum = sum + t.getXY();
-    }
-
-    return sum;
+  public void execute(PackedTuples data) {
+    RegressionStats stats = new RegressionStats();
+    stats.addAll(data);
+    fit(stats);
   }
 
-
   /**
-   * Calculate d
-   * @param data the data this algorithm is operating on.
-   * @return d
+   * Take the line and how well it fits from the statistics of the data.
+   * @param stats the statistics of the data
    */
-  private double calculateD(List<Tuple> data) {
-    return data.size() * sumXSq(data) - Math.pow(sumX(data), 2);
-  }
-
-
-  /**
-   * Calculate dm
-   * @param data the data this algorithm is operating on.
-   * @return dm
-   */
-  private double calculateDM(List<Tuple> data) {
-    return data.size() * sumXY(data) - sumX(data) * sumY(data);
-  }
-
-
-  /**
-   * Calculate db
-   * @param data the data this algorithm is operating on.
-   * @return db
-   */
-  private double calculateDB(List<Tuple> data) {
-    return sumY(data) * sumXSq(data) - sumX(data) * sumXY(data);
-  }
-
-
-  /**
-   * Calculate the slope of the linear regression.
-   * @param data the data on which to perform linear regression
-   * @return the slope, a double
-   */
-  private double slope(List<Tuple> data) {
-    return calculateDM(data) / calculateD(data);
-  }
-
-
-  /**
-   * Calculate the coefficient of the linear regression.
-   * @param data the data on which to perform linear regression
-   * @return the coefficient, a double
-   */
-  private double intercept(List<Tuple> data) {
-    return calculateDB(data) / calculateD(data);
-  }
-
-  @Override
-  public void execute(ListOfTuplesImpl data) {
-    slope = slope(data.getHead());
-    intercept = intercept(data.getHead());
+  private void fit(RegressionStats stats) {
+    slope = stats.slope();
+    intercept = stats.intercept();
+    count = (int) stats.getCount();
+    rSquared = stats.rSquared();
+    residualStdError = stats.residualStdError();
   }
 
 }
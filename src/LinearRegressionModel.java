@@ -0,0 +1,103 @@
+/**
+ * LinearRegressionModel is the result of a fitted linear regression: y = slope * x + intercept.
+ *
+ * It only predicts y from x, without refitting. The model is immutable and predictions do
+ * not allocate, so one model can serve many threads at once.
+ */
+public final class LinearRegressionModel {
+  private final double slope;
+  private final double intercept;
+  private final long count;
+  private final double rSquared;
+  private final double residualStdError;
+
+  /**
+   * Construct a LinearRegressionModel object without fit statistics.
+   * @param slope the slope of the line
+   * @param intercept the intercept of the line
+   */
+  public LinearRegressionModel(double slope, double intercept) {
+    this(slope, intercept, 0, Double.NaN, Double.NaN);
+  }
+
+  /**
+   * Construct a LinearRegressionModel object.
+   * @param slope the slope of the line
+   * @param intercept the intercept of the line
+   * @param count the number of data points the line was fitted to
+   * @param rSquared the coefficient of determination of the fit
+   * @param residualStdError the standard error of the residuals
+   */
+  public LinearRegressionModel(double slope, double intercept, long count, double rSquared,
+                               double residualStdError) {
+    this.slope = slope;
+    this.intercept = intercept;
+    this.count = count;
+    this.rSquared = rSquared;
+    this.residualStdError = residualStdError;
+  }
+
+  /**
+   * Getter for the slope.
+   * @return the slope
+   */
+  public double getSlope() {
+    return slope;
+  }
+
+  /**
+   * Getter for the intercept.
+   * @return the intercept
+   */
+  public double getIntercept() {
+    return intercept;
+  }
+
+  /**
+   * Get the number of data points the line was fitted to.
+   * @return the number of data points, 0 if unknown
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Get the coefficient of determination of the fit.
+   * @return R squared, NaN if unknown
+   */
+  public double getRSquared() {
+    return rSquared;
+  }
+
+  /**
+   * Get the standard error of the residuals of the fit.
+   * @return the residual standard error, NaN if unknown
+   */
+  public double getResidualStdError() {
+    return residualStdError;
+  }
+
+  /**
+   * Predict y for a single x.
+   * @param x the x coordinate
+   * @return the predicted y coordinate
+   */
+  public double predict(double x) {
+    return slope * x + intercept;
+  }
+
+  /**
+   * Predict y for a batch of x.
+   * @param xs the x coordinates
+   * @param out where to put the predicted y coordinates
+   */
+  public void predict(double[] xs, double[] out) throws IllegalArgumentException {
+    if (out.length < xs.length) {
+      throw new IllegalArgumentException("out is too short for xs!");
+    }
+    for (int i = 0; i < xs.length; i++) {
+      out[i] = slope * xs[i] + intercept;
+    }
+  }
+
+}
@@ -9,6 +9,8 @@ import java.util.ArrayList;
 
 public class ListOfTuplesImpl implements ListData<Tuple> {
   private List<Tuple> head;
+  // notified on every append; copies of the list start without listeners
+  private final List<AppendListener> listeners = new ArrayList<AppendListener>();
 
   /**
    * Constructor for ListOfTuplesImpl.
@@ -35,9 +37,58 @@ public class ListOfTuplesImpl implements ListData<Tuple> {
   }
 
 
+  /**
+   * Pack the data into a flat primitive array, for the hot loops of the algorithms.
+   * @param singlePrecision whether to store the coordinates as floats, halving the memory used
+   * @return the packed data
+   */
+  public PackedTuples pack(boolean singlePrecision) {
+    return PackedTuples.pack(head, singlePrecision);
+  }
+
+
+  /**
+   * Register a listener to be notified of every append.
+   * @param listener the listener
+   */
+  public void addListener(AppendListener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Stop notifying a listener.
+   * @param listener the listener
+   */
+  public void removeListener(AppendListener listener) {
+    listeners.remove(listener);
+  }
+
   @Override
   public void add(Tuple o) {
     head.add(o);
+    notifyListeners(head.size() - 1);
+  }
+
+  /**
+   * Append a batch of Tuples, notifying the listeners once for the whole batch.
+   * @param batch the Tuples to append
+   */
+  public void addAll(List<Tuple> batch) {
+    int start = head.size();
+    head.addAll(batch);
+    if (head.size() > start) {
+      notifyListeners(start);
+    }
+  }
+
+  /**
+   * Tell every listener that Tuples were appended.
+   * @param start the index of the first new Tuple
+   */
+  private void notifyListeners(int start) {
+    for (AppendListener listener : listeners) {
+      listener.appended(head, start);
+    }
   }
 
   @Override
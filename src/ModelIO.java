@@ -0,0 +1,229 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * ModelIO saves trained models to compact, versioned binary files and loads them back.
+ *
+ * All numbers are little-endian. A k-means file is laid out as
+ * magic, version, k, iterations, changed, flags (6 ints), the k centers as (x, y) doubles and,
+ * if flag bit 0 is set, the number of assignments and the bytes per assignment (2 ints)
+ * followed by the assignments themselves. Flag bit 1 is set if the training did not converge.
+ * A linear regression file is laid out as magic, version (2 ints), the number of data points
+ * (a long) and slope, intercept, R squared and the residual standard error (4 doubles).
+ */
+public class ModelIO {
+  static final int KMEANS_MAGIC = 0x4B4D4D44; // "KMMD"
+  static final int LINEAR_MAGIC = 0x4C524D44; // "LRMD"
+  static final int VERSION = 1;
+  private static final int KMEANS_HEADER_BYTES = 24;
+  private static final int HAS_ASSIGNMENTS = 1;
+  private static final int NOT_CONVERGED = 2;
+
+  /**
+   * Save a trained k-means model.
+   * @param model the model to save
+   * @param assignments the assignments of the training data, or null to leave them out
+   * @param path the path of the file
+   * @throws IOException if the file cannot be written
+   */
+  public static void save(KMeansModel model, Assignments assignments, String path)
+          throws IOException {
+    int k = model.getK();
+    ByteBuffer buffer = ByteBuffer.allocate(KMEANS_HEADER_BYTES + 16 * k + 8)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(KMEANS_MAGIC);
+    buffer.putInt(VERSION);
+    buffer.putInt(k);
+    buffer.putInt(model.getIterations());
+    buffer.putInt(model.getChanged());
+    buffer.putInt((assignments != null ? HAS_ASSIGNMENTS : 0)
+            | (model.isConverged() ? 0 : NOT_CONVERGED));
+    for (int i = 0; i < k; i++) {
+      buffer.putDouble(model.getCenterX(i));
+      buffer.putDouble(model.getCenterY(i));
+    }
+    if (assignments != null) {
+      buffer.putInt(assignments.size());
+      buffer.putInt(assignments.bytesPerEntry());
+    }
+    buffer.flip();
+
+    try (FileChannel out = create(path)) {
+      TupleFile.writeFully(out, buffer);
+      if (assignments != null) {
+        assignments.writeTo(out);
+      }
+    }
+  }
+
+  /**
+   * Load a trained k-means model; the assignments, if any, are skipped.
+   * @param path the path of the file
+   * @return the model
+   * @throws IOException if the file cannot be read or is not a k-means model
+   */
+  public static KMeansModel loadKMeans(String path) throws IOException {
+    try (FileChannel in = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+      ByteBuffer header = read(in, 0, KMEANS_HEADER_BYTES);
+      int k = checkKMeansHeader(header, in.size(), path);
+      int iterations = header.getInt();
+      int changed = header.getInt();
+      boolean converged = (header.getInt() & NOT_CONVERGED) == 0;
+
+      ByteBuffer centers = read(in, KMEANS_HEADER_BYTES, 16 * k);
+      double[] center = new double[2 * k];
+      centers.asDoubleBuffer().get(center);
+      return new KMeansModel(center, iterations, changed, converged);
+    }
+  }
+
+  /**
+   * Load the assignments saved with a k-means model.
+   * @param path the path of the file
+   * @param mapped whether to memory-map the assignments instead of copying them into memory;
+   *               a mapped result is read-only, and is paged in by the operating system
+   *               as it is used
+   * @return the assignments, or null if none were saved
+   * @throws IOException if the file cannot be read or is not a k-means model
+   */
+  public static Assignments loadAssignments(String path, boolean mapped) throws IOException {
+    try (FileChannel in = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+      ByteBuffer header = read(in, 0, KMEANS_HEADER_BYTES);
+      int k = checkKMeansHeader(header, in.size(), path);
+      header.getInt(); // iterations
+      header.getInt(); // changed
+      if ((header.getInt() & HAS_ASSIGNMENTS) == 0) {
+        return null;
+      }
+
+      long position = KMEANS_HEADER_BYTES + 16L * k;
+      ByteBuffer sizes = read(in, position, 8);
+      int size = sizes.getInt();
+      int entryBytes = sizes.getInt();
+      long length = (long) size * entryBytes;
+      position += 8;
+      boolean validEntry = entryBytes == 1 || entryBytes == 2 || entryBytes == 4;
+      if (size < 0 || !validEntry || position + length > in.size()
+              || length > Integer.MAX_VALUE) {
+        throw new IOException(path + " is truncated or corrupt!");
+      }
+
+      if (mapped) {
+        /*
+         * the mapping stays valid after the channel is closed
+         */
+        MappedByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+        return Assignments.view(map, size, entryBytes);
+      }
+      return Assignments.copyOf(read(in, position, (int) length), size, entryBytes);
+    }
+  }
+
+  /**
+   * Save a fitted linear regression model.
+   * @param model the model to save
+   * @param path the path of the file
+   * @throws IOException if the file cannot be written
+   */
+  public static void save(LinearRegressionModel model, String path) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(48).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(LINEAR_MAGIC);
+    buffer.putInt(VERSION);
+    buffer.putLong(model.getCount());
+    buffer.putDouble(model.getSlope());
+    buffer.putDouble(model.getIntercept());
+    buffer.putDouble(model.getRSquared());
+    buffer.putDouble(model.getResidualStdError());
+    buffer.flip();
+
+    try (FileChannel out = create(path)) {
+      TupleFile.writeFully(out, buffer);
+    }
+  }
+
+  /**
+   * Load a fitted linear regression model.
+   * @param path the path of the file
+   * @return the model
+   * @throws IOException if the file cannot be read or is not a linear regression model
+   */
+  public static LinearRegressionModel loadLinearRegression(String path) throws IOException {
+    try (FileChannel in = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+      if (in.size() < 48) {
+        throw new IOException(path + " is truncated or corrupt!");
+      }
+      ByteBuffer buffer = read(in, 0, 48);
+      if (buffer.getInt() != LINEAR_MAGIC) {
+        throw new IOException(path + " is not a linear regression model!");
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new IOException("unsupported model version " + version);
+      }
+      long count = buffer.getLong();
+      return new LinearRegressionModel(buffer.getDouble(), buffer.getDouble(), count,
+              buffer.getDouble(), buffer.getDouble());
+    }
+  }
+
+  /**
+   * Check the magic number and version of a k-means header, and that the centers are there.
+   * @param header the header, positioned at the start
+   * @param fileSize the size of the file
+   * @param path the path of the file, for error messages
+   * @return k
+   * @throws IOException if the header is not valid
+   */
+  private static int checkKMeansHeader(ByteBuffer header, long fileSize, String path)
+          throws IOException {
+    if (header.getInt() != KMEANS_MAGIC) {
+      throw new IOException(path + " is not a k-means model!");
+    }
+    int version = header.getInt();
+    if (version != VERSION) {
+      throw new IOException("unsupported model version " + version);
+    }
+    int k = header.getInt();
+    if (k <= 0 || KMEANS_HEADER_BYTES + 16L * k > fileSize) {
+      throw new IOException(path + " is truncated or corrupt!");
+    }
+    return k;
+  }
+
+  /**
+   * Read a number of bytes from a position of a channel.
+   * @param in the channel to read from
+   * @param position the position in the file
+   * @param length the number of bytes
+   * @return a little-endian buffer with the bytes, ready to be read
+   * @throws IOException if the file is too short
+   */
+  private static ByteBuffer read(FileChannel in, long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      int read = in.read(buffer, position + buffer.position());
+      if (read < 0) {
+        throw new IOException("unexpected end of file");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Open a file for writing, replacing what was there.
+   * @param path the path of the file
+   * @return the channel
+   * @throws IOException if the file cannot be opened
+   */
+  private static FileChannel create(String path) throws IOException {
+    return FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+  }
+
+}
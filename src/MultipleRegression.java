@@ -0,0 +1,509 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * MultipleRegression fits y = b1 x1 + ... + bp xp (+ intercept) by weighted least squares.
+ *
+ * The rows are stored row-major in one primitive array. A single parallel pass builds the
+ * normal equations X'WX b = X'Wy: every thread takes a contiguous range of rows, copies them
+ * a block at a time into a small column-major tile, and adds the tile's dot products to its
+ * own Gram matrix; the threads' matrices are then added in order. The system is solved by
+ * Cholesky decomposition. When the Gram matrix is too close to singular for that (nearly
+ * collinear features), a second pass computes a QR decomposition of the weighted rows with
+ * Givens rotations instead, which never squares the condition number and needs no copy of
+ * the data.
+ *
+ * With one feature and an intercept this fits the same line as LinearRegressionImpl.
+ */
+public class MultipleRegression implements Algorithm {
+  // the rows of one tile
+  private static final int BLOCK_ROWS = 64;
+  // the smallest Cholesky pivot, relative to its diagonal entry, that is still trusted
+  private static final double PIVOT_TOLERANCE = 1e-8;
+
+  private final int features;
+  private boolean intercept;
+  private int parallelism;
+  private double[] coefficients;
+  private double rSquared;
+  private boolean qrFallback;
+
+  /**
+   * Construct a MultipleRegression object with an intercept.
+   * @param features the number of features of each row
+   */
+  public MultipleRegression(int features) throws IllegalArgumentException {
+    if (features <= 0) {
+      throw new IllegalArgumentException("at least one feature is needed!");
+    }
+    this.features = features;
+    this.intercept = true;
+    this.parallelism = Runtime.getRuntime().availableProcessors();
+    this.rSquared = Double.NaN;
+  }
+
+  /**
+   * Choose whether to fit an intercept, or force the fit through the origin.
+   * @param intercept whether to fit an intercept
+   */
+  public void setIntercept(boolean intercept) {
+    this.intercept = intercept;
+  }
+
+  /**
+   * Set the number of threads of a fit.
+   * @param parallelism the number of threads
+   */
+  public void setParallelism(int parallelism) throws IllegalArgumentException {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism has to be positive!");
+    }
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Get the fitted coefficients of the features.
+   * @return the coefficients, one per feature
+   */
+  public double[] getCoefficients() {
+    return Arrays.copyOf(coefficients, features);
+  }
+
+  /**
+   * Get the fitted intercept.
+   * @return the intercept, 0 if no intercept is fitted
+   */
+  public double getIntercept() {
+    return intercept ? coefficients[features] : 0;
+  }
+
+  /**
+   * Get the (weighted) coefficient of determination of the last fit.
+   * @return R squared
+   */
+  public double getRSquared() {
+    return rSquared;
+  }
+
+  /**
+   * Tell whether the last fit had to fall back from Cholesky to QR.
+   * @return true if the normal equations were too ill-conditioned for Cholesky
+   */
+  public boolean isQrFallback() {
+    return qrFallback;
+  }
+
+  /**
+   * Predict y for one row of features.
+   * @param row the features
+   * @return the predicted y
+   */
+  public double predict(double[] row) {
+    double y = getIntercept();
+    for (int a = 0; a < features; a++) {
+      y += coefficients[a] * row[a];
+    }
+    return y;
+  }
+
+  @Override
+  public void execute(ListOfTuplesImpl data) throws IllegalStateException {
+    if (features != 1) {
+      throw new IllegalStateException("tuples have only one feature!");
+    }
+    PackedTuples packed = data.pack(false);
+    double[] x = new double[packed.size()];
+    double[] y = new double[packed.size()];
+    for (int i = 0; i < x.length; i++) {
+      x[i] = packed.getX(i);
+      y[i] = packed.getY(i);
+    }
+    fit(x, y);
+  }
+
+  /**
+   * Fit by ordinary least squares.
+   * @param x the features, row-major: the features of row i are x[i * features ...]
+   * @param y the responses, one per row
+   */
+  public void fit(double[] x, double[] y) {
+    fit(x, y, null);
+  }
+
+  /**
+   * Fit by weighted least squares.
+   * @param x the features, row-major: the features of row i are x[i * features ...]
+   * @param y the responses, one per row
+   * @param w the weights, one per row and all &gt;= 0, or null for equal weights
+   */
+  public void fit(double[] x, double[] y, double[] w) throws IllegalArgumentException {
+    int n = y.length;
+    if (x.length != (long) n * features || (w != null && w.length != n)) {
+      throw new IllegalArgumentException("x, y and w do not describe the same rows!");
+    }
+    int d = features + (intercept ? 1 : 0);
+    if (n < d) {
+      throw new IllegalArgumentException("need at least " + d + " rows!");
+    }
+
+    List<Gram> parts = run(n, (start, end) -> {
+      Gram part = new Gram(d);
+      part.accumulate(x, y, w, start, end);
+      return part;
+    });
+    Gram gram = parts.get(0);
+    for (Gram part : parts.subList(1, parts.size())) {
+      gram.add(part);
+    }
+
+    coefficients = cholesky(gram.xx, gram.xy, d);
+    qrFallback = coefficients == null;
+    if (qrFallback) {
+      List<Givens> qrs = run(n, (start, end) -> {
+        Givens part = new Givens(d);
+        part.accumulate(x, y, w, start, end);
+        return part;
+      });
+      Givens qr = qrs.get(0);
+      for (Givens part : qrs.subList(1, qrs.size())) {
+        qr.add(part);
+      }
+      coefficients = qr.solve();
+    }
+
+    /*
+     * sum of squared residuals = y'Wy - b'X'Wy at the least squares solution
+     */
+    double explained = 0;
+    for (int a = 0; a < d; a++) {
+      explained += coefficients[a] * gram.xy[a];
+    }
+    double sse = Math.max(0, gram.yy - explained);
+    double sst = gram.yy - gram.wy * gram.wy / gram.w;
+    rSquared = 1 - sse / sst;
+  }
+
+  /**
+   * A task over a contiguous range of rows.
+   * @param <T> the partial result of a range
+   */
+  private interface RangeTask<T> {
+    T run(int start, int end);
+  }
+
+  /**
+   * Split the rows into contiguous ranges, one per thread, and run a task on each.
+   * @param n the number of rows
+   * @param task the task
+   * @param <T> the partial result of a range
+   * @return the partial results, in the order of the ranges
+   */
+  private <T> List<T> run(int n, RangeTask<T> task) throws IllegalStateException {
+    int parts = Math.max(1, Math.min(parallelism, n / (16 * BLOCK_ROWS)));
+    List<T> results = new ArrayList<T>();
+    if (parts == 1) {
+      results.add(task.run(0, n));
+      return results;
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(parts);
+    try {
+      List<Future<T>> futures = new ArrayList<Future<T>>();
+      for (int p = 0; p < parts; p++) {
+        int start = (int) ((long) n * p / parts);
+        int end = (int) ((long) n * (p + 1) / parts);
+        futures.add(pool.submit((Callable<T>) () -> task.run(start, end)));
+      }
+      for (Future<T> future : futures) {
+        results.add(future.get());
+      }
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while fitting", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("fitting a range of rows failed", e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Copy one feature (or the intercept's column of ones) of a row.
+   * @param x the features, row-major
+   * @param row the row
+   * @param a the column; the column after the last feature is the intercept
+   * @return the value
+   */
+  private double column(double[] x, int row, int a) {
+    return a < features ? x[row * features + a] : 1;
+  }
+
+  /**
+   * The normal equations of a range of rows: the upper triangle of X'WX, X'Wy, y'Wy,
+   * and the sums of the weights and weighted responses for R squared.
+   */
+  private final class Gram {
+    private final int d;
+    private final double[] xx;
+    private final double[] xy;
+    private double yy;
+    private double w;
+    private double wy;
+
+    /**
+     * Construct empty normal equations.
+     * @param d the number of columns
+     */
+    Gram(int d) {
+      this.d = d;
+      this.xx = new double[d * d];
+      this.xy = new double[d];
+    }
+
+    /**
+     * Add rows, a tile of BLOCK_ROWS at a time.
+     * @param x the features, row-major
+     * @param y the responses
+     * @param weight the weights, or null
+     * @param start the first row
+     * @param end the row after the last
+     */
+    void accumulate(double[] x, double[] y, double[] weight, int start, int end) {
+      // tile[a * BLOCK_ROWS + r] = column a of row r of the tile
+      double[] tile = new double[d * BLOCK_ROWS];
+      double[] tileY = new double[BLOCK_ROWS];
+      double[] tileW = new double[BLOCK_ROWS];
+      double[] weighted = new double[BLOCK_ROWS];
+      for (int first = start; first < end; first += BLOCK_ROWS) {
+        int rows = Math.min(BLOCK_ROWS, end - first);
+        for (int r = 0; r < rows; r++) {
+          int row = first + r;
+          for (int a = 0; a < d; a++) {
+            tile[a * BLOCK_ROWS + r] = column(x, row, a);
+          }
+          tileY[r] = y[row];
+          tileW[r] = weight != null ? weight[row] : 1;
+          w += tileW[r];
+          wy += tileW[r] * y[row];
+          yy += tileW[r] * y[row] * y[row];
+        }
+
+        for (int a = 0; a < d; a++) {
+          int offsetA = a * BLOCK_ROWS;
+          double sumY = 0;
+          for (int r = 0; r < rows; r++) {
+            weighted[r] = tile[offsetA + r] * tileW[r];
+            sumY += weighted[r] * tileY[r];
+          }
+          xy[a] += sumY;
+          // four columns at a time: independent sums, and one load of weighted[r] for four
+          int b = a;
+          for (; b + 3 < d; b += 4) {
+            int offsetB = b * BLOCK_ROWS;
+            double sum0 = 0;
+            double sum1 = 0;
+            double sum2 = 0;
+            double sum3 = 0;
+            for (int r = 0; r < rows; r++) {
+              double v = weighted[r];
+              sum0 += v * tile[offsetB + r];
+              sum1 += v * tile[offsetB + BLOCK_ROWS + r];
+              sum2 += v * tile[offsetB + 2 * BLOCK_ROWS + r];
+              sum3 += v * tile[offsetB + 3 * BLOCK_ROWS + r];
+            }
+            xx[a * d + b] += sum0;
+            xx[a * d + b + 1] += sum1;
+            xx[a * d + b + 2] += sum2;
+            xx[a * d + b + 3] += sum3;
+          }
+          for (; b < d; b++) {
+            int offsetB = b * BLOCK_ROWS;
+            double sum = 0;
+            for (int r = 0; r < rows; r++) {
+              sum += weighted[r] * tile[offsetB + r];
+            }
+            xx[a * d + b] += sum;
+          }
+        }
+      }
+    }
+
+    /**
+     * Add the normal equations of another, disjoint range of rows.
+     * @param other the other normal equations
+     */
+    void add(Gram other) {
+      for (int i = 0; i < xx.length; i++) {
+        xx[i] += other.xx[i];
+      }
+      for (int i = 0; i < d; i++) {
+        xy[i] += other.xy[i];
+      }
+      yy += other.yy;
+      w += other.w;
+      wy += other.wy;
+    }
+  }
+
+  /**
+   * Solve the normal equations by Cholesky decomposition.
+   * @param gram the upper triangle of X'WX, row-major
+   * @param rhs X'Wy
+   * @param d the number of columns
+   * @return the solution, or null if a pivot is too small for the result to be trusted
+   */
+  private static double[] cholesky(double[] gram, double[] rhs, int d) {
+    // the lower triangular factor L with L L' = X'WX
+    double[] lower = new double[d * d];
+    for (int j = 0; j < d; j++) {
+      double diagonal = gram[j * d + j];
+      double pivot = diagonal;
+      for (int k = 0; k < j; k++) {
+        pivot -= lower[j * d + k] * lower[j * d + k];
+      }
+      if (!(pivot > PIVOT_TOLERANCE * diagonal)) {
+        return null;
+      }
+      double root = Math.sqrt(pivot);
+      lower[j * d + j] = root;
+      for (int i = j + 1; i < d; i++) {
+        double sum = gram[j * d + i];
+        for (int k = 0; k < j; k++) {
+          sum -= lower[i * d + k] * lower[j * d + k];
+        }
+        lower[i * d + j] = sum / root;
+      }
+    }
+
+    /*
+     * forward substitution L z = rhs, then back substitution L' b = z
+     */
+    double[] solution = new double[d];
+    for (int i = 0; i < d; i++) {
+      double sum = rhs[i];
+      for (int k = 0; k < i; k++) {
+        sum -= lower[i * d + k] * solution[k];
+      }
+      solution[i] = sum / lower[i * d + i];
+    }
+    for (int i = d - 1; i >= 0; i--) {
+      double sum = solution[i];
+      for (int k = i + 1; k < d; k++) {
+        sum -= lower[k * d + i] * solution[k];
+      }
+      solution[i] = sum / lower[i * d + i];
+    }
+    return solution;
+  }
+
+  /**
+   * The QR decomposition of a range of weighted rows, built one row at a time with Givens
+   * rotations: only the triangular factor R and Q'Wy are kept.
+   */
+  private final class Givens {
+    private final int d;
+    private final double[] r;
+    private final double[] z;
+    private final double[] row;
+
+    /**
+     * Construct an empty decomposition.
+     * @param d the number of columns
+     */
+    Givens(int d) {
+      this.d = d;
+      this.r = new double[d * d];
+      this.z = new double[d];
+      this.row = new double[d];
+    }
+
+    /**
+     * Rotate rows into the decomposition.
+     * @param x the features, row-major
+     * @param y the responses
+     * @param weight the weights, or null
+     * @param start the first row
+     * @param end the row after the last
+     */
+    void accumulate(double[] x, double[] y, double[] weight, int start, int end) {
+      for (int i = start; i < end; i++) {
+        double scale = weight != null ? Math.sqrt(weight[i]) : 1;
+        for (int a = 0; a < d; a++) {
+          row[a] = scale * column(x, i, a);
+        }
+        rotate(row, scale * y[i]);
+      }
+    }
+
+    /**
+     * Rotate one row into R, zeroing it out from the left.
+     * @param values the row, destroyed
+     * @param response its response
+     */
+    private void rotate(double[] values, double response) {
+      for (int i = 0; i < d; i++) {
+        double v = values[i];
+        if (v == 0) {
+          continue;
+        }
+        double diagonal = r[i * d + i];
+        double norm = Math.hypot(diagonal, v);
+        double c = diagonal / norm;
+        double s = v / norm;
+        r[i * d + i] = norm;
+        for (int j = i + 1; j < d; j++) {
+          double t = r[i * d + j];
+          r[i * d + j] = c * t + s * values[j];
+          values[j] = c * values[j] - s * t;
+        }
+        double t = z[i];
+        z[i] = c * t + s * response;
+        response = c * response - s * t;
+      }
+    }
+
+    /**
+     * Add the decomposition of another, disjoint range of rows, by rotating its rows of R in.
+     * @param other the other decomposition
+     */
+    void add(Givens other) {
+      for (int i = 0; i < d; i++) {
+        System.arraycopy(other.r, i * d, row, 0, d);
+        rotate(row, other.z[i]);
+      }
+    }
+
+    /**
+     * Solve R b = Q'Wy by back substitution. A column that is (nearly) a combination of the
+     * columns before it gets coefficient 0.
+     * @return the solution
+     */
+    double[] solve() {
+      double largest = 0;
+      for (int i = 0; i < d; i++) {
+        largest = Math.max(largest, Math.abs(r[i * d + i]));
+      }
+      double[] solution = new double[d];
+      for (int i = d - 1; i >= 0; i--) {
+        double diagonal = r[i * d + i];
+        if (Math.abs(diagonal) <= 1e-12 * largest) {
+          continue;
+        }
+        double sum = z[i];
+        for (int j = i + 1; j < d; j++) {
+          sum -= r[i * d + j] * solution[j];
+        }
+        solution[i] = sum / diagonal;
+      }
+      return solution;
+    }
+  }
+
+}
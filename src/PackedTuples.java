@@ -0,0 +1,212 @@
+import java.util.List;
+
+/**
+ * PackedTuples stores the coordinates of a list of Tuples in one flat primitive array,
+ * interleaved as x0, y0, x1, y1, ...
+ *
+ * The coordinates are kept either in double precision or, to halve the memory footprint
+ * of large datasets, in single precision. Optionally every Tuple carries a weight, e.g. when
+ * the Tuples are a weighted sample standing in for a larger dataset; without weights every
+ * Tuple counts once.
+ */
+public class PackedTuples {
+
+  /*
+   * exactly one of these is non-null, depending on the precision
+   */
+  private final double[] coords;
+  private final float[] coordsF;
+  private final int size;
+  // null when every Tuple has weight 1
+  private final double[] weights;
+
+  /**
+   * Construct a double precision PackedTuples object around the given coordinates.
+   * @param coords the interleaved x- and y-coordinates; not copied
+   */
+  public PackedTuples(double[] coords) throws IllegalArgumentException {
+    if (coords.length % 2 != 0) {
+      throw new IllegalArgumentException("coordinates must come in (x, y) pairs!");
+    }
+    this.coords = coords;
+    this.coordsF = null;
+    this.size = coords.length / 2;
+    this.weights = null;
+  }
+
+  /**
+   * Construct a single precision PackedTuples object around the given coordinates.
+   * @param coords the interleaved x- and y-coordinates; not copied
+   */
+  public PackedTuples(float[] coords) throws IllegalArgumentException {
+    if (coords.length % 2 != 0) {
+      throw new IllegalArgumentException("coordinates must come in (x, y) pairs!");
+    }
+    this.coords = null;
+    this.coordsF = coords;
+    this.size = coords.length / 2;
+    this.weights = null;
+  }
+
+  /**
+   * Construct a double precision PackedTuples object over the first size Tuples of a
+   * (possibly larger, reused) coordinate array.
+   * @param coords the interleaved x- and y-coordinates; not copied
+   * @param size the number of Tuples in use
+   */
+  PackedTuples(double[] coords, int size) {
+    this.coords = coords;
+    this.coordsF = null;
+    this.size = size;
+    this.weights = null;
+  }
+
+  /**
+   * Construct a single precision PackedTuples object over the first size Tuples of a
+   * (possibly larger, reused) coordinate array.
+   * @param coords the interleaved x- and y-coordinates; not copied
+   * @param size the number of Tuples in use
+   */
+  PackedTuples(float[] coords, int size) {
+    this.coords = null;
+    this.coordsF = coords;
+    this.size = size;
+    this.weights = null;
+  }
+
+  /**
+   * Construct a PackedTuples object sharing the coordinates of another, with weights.
+   * @param other the Tuples
+   * @param weights one weight per Tuple; not copied
+   */
+  private PackedTuples(PackedTuples other, double[] weights) {
+    this.coords = other.coords;
+    this.coordsF = other.coordsF;
+    this.size = other.size;
+    this.weights = weights;
+  }
+
+  /**
+   * Attach a weight to every Tuple, e.g. how many Tuples of the full dataset it stands for.
+   * @param weights one weight per Tuple, all &gt;= 0; not copied
+   * @return PackedTuples over the same coordinates, with the weights
+   */
+  public PackedTuples withWeights(double[] weights) throws IllegalArgumentException {
+    if (weights.length != size) {
+      throw new IllegalArgumentException("need exactly one weight per Tuple!");
+    }
+    return new PackedTuples(this, weights);
+  }
+
+  /**
+   * Pack a list of Tuples.
+   * @param data the Tuples to pack
+   * @param singlePrecision whether to store the coordinates as floats
+   * @return the packed Tuples
+   */
+  public static PackedTuples pack(List<Tuple> data, boolean singlePrecision) {
+    int n = data.size();
+    if (singlePrecision) {
+      float[] packed = new float[2 * n];
+      for (int i = 0; i < n; i++) {
+        Tuple t = data.get(i);
+        packed[2 * i] = (float) t.getX();
+        packed[2 * i + 1] = (float) t.getY();
+      }
+      return new PackedTuples(packed);
+    }
+
+    double[] packed = new double[2 * n];
+    for (int i = 0; i < n; i++) {
+      Tuple t = data.get(i);
+      packed[2 * i] = t.getX();
+      packed[2 * i + 1] = t.getY();
+    }
+    return new PackedTuples(packed);
+  }
+
+  /**
+   * Get the number of Tuples stored.
+   * @return the number of Tuples
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Check whether the coordinates are stored in single precision.
+   * @return true if the coordinates are floats; false if they are doubles
+   */
+  public boolean isSinglePrecision() {
+    return coordsF != null;
+  }
+
+  /**
+   * Check whether the Tuples carry weights.
+   * @return true if the Tuples are weighted; false if every Tuple counts once
+   */
+  public boolean isWeighted() {
+    return weights != null;
+  }
+
+  /**
+   * Getter for the weight of the i-th Tuple.
+   * @param i the index of the Tuple
+   * @return the weight, 1 if the Tuples are not weighted
+   */
+  public double getWeight(int i) {
+    return weights != null ? weights[i] : 1;
+  }
+
+  /**
+   * Getter for the x coordinate of the i-th Tuple.
+   * @param i the index of the Tuple
+   * @return the x coordinate
+   */
+  public double getX(int i) {
+    return coords != null ? coords[2 * i] : coordsF[2 * i];
+  }
+
+  /**
+   * Getter for the y coordinate of the i-th Tuple.
+   * @param i the index of the Tuple
+   * @return the y coordinate
+   */
+  public double getY(int i) {
+    return coords != null ? coords[2 * i + 1] : coordsF[2 * i + 1];
+  }
+
+  /**
+   * Turn the i-th entry back into a Tuple.
+   * @param i the index of the Tuple
+   * @return a new Tuple with the same coordinates
+   */
+  public Tuple get(int i) {
+    return new Tuple(getX(i), getY(i));
+  }
+
+  /**
+   * Direct access to the double precision storage, for the hot loops of the algorithms.
+   * @return the interleaved coordinates, or null in single precision
+   */
+  double[] doubles() {
+    return coords;
+  }
+
+  /**
+   * Direct access to the single precision storage, for the hot loops of the algorithms.
+   * @return the interleaved coordinates, or null in double precision
+   */
+  float[] floats() {
+    return coordsF;
+  }
+
+  /**
+   * Direct access to the weights, for the hot loops of the algorithms.
+   * @return the weights, or null if the Tuples are not weighted
+   */
+  double[] weights() {
+    return weights;
+  }
+
+}
@@ -0,0 +1,99 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ParallelLinearRegression fits a line like LinearRegressionImpl, but splits the data into
+ * partitions, computes the RegressionStats of each partition on its own thread, and merges
+ * them. The partitions are merged in order, so the result does not depend on thread timing.
+ */
+public class ParallelLinearRegression implements Algorithm {
+  private final int parallelism;
+  private RegressionStats stats;
+
+  /**
+   * Construct a ParallelLinearRegression object using all available processors.
+   */
+  public ParallelLinearRegression() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Construct a ParallelLinearRegression object.
+   * @param parallelism the number of partitions and threads
+   */
+  public ParallelLinearRegression(int parallelism) throws IllegalArgumentException {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism has to be positive!");
+    }
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Get the merged statistics of the last execution, with slope, intercept and
+   * confidence intervals.
+   * @return the statistics
+   */
+  public RegressionStats getStats() {
+    return stats;
+  }
+
+  /**
+   * Get the fitted model.
+   * @return the fitted model
+   */
+  public LinearRegressionModel getModel() {
+    return stats.toModel();
+  }
+
+  @Override
+  public void execute(ListOfTuplesImpl data) {
+    execute(data.pack(false));
+  }
+
+  /**
+   * Fit a line to packed data, by weighted least squares if the data is weighted.
+   * @param data the points
+   */
+  public void execute(PackedTuples data) {
+    int n = data.size();
+    int parts = Math.min(parallelism, Math.max(1, n / 4096));
+    if (parts == 1) {
+      stats = new RegressionStats();
+      stats.addAll(data);
+      return;
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(parts);
+    try {
+      List<Future<RegressionStats>> partials = new ArrayList<Future<RegressionStats>>();
+      for (int p = 0; p < parts; p++) {
+        int start = (int) ((long) n * p / parts);
+        int end = (int) ((long) n * (p + 1) / parts);
+        partials.add(pool.submit(() -> {
+          RegressionStats partial = new RegressionStats();
+          for (int i = start; i < end; i++) {
+            partial.add(data.getX(i), data.getY(i), data.getWeight(i));
+          }
+          return partial;
+        }));
+      }
+      RegressionStats merged = new RegressionStats();
+      for (Future<RegressionStats> partial : partials) {
+        merged.merge(partial.get());
+      }
+      stats = merged;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while fitting", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("fitting a partition failed", e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+}
@@ -0,0 +1,186 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * PartialSums holds what one part of the data contributes to a k-means iteration:
+ * the per-cluster coordinate sums and sizes, the number of reassigned points and the sum of
+ * the distances to the assigned centers. Partial sums of disjoint parts merge by adding.
+ */
+public final class PartialSums {
+  final double[] sum;
+  final long[] count;
+  long changed;
+  double distance;
+
+  /**
+   * Construct empty PartialSums for k clusters.
+   * @param k the number of clusters
+   */
+  public PartialSums(int k) {
+    this.sum = new double[2 * k];
+    this.count = new long[k];
+  }
+
+  /**
+   * Get the number of clusters.
+   * @return k
+   */
+  public int getK() {
+    return count.length;
+  }
+
+  /**
+   * Get the number of points that changed cluster.
+   * @return the number of reassigned points
+   */
+  public long getChanged() {
+    return changed;
+  }
+
+  /**
+   * Get the sum of the distances of the points to their assigned centers.
+   * @return the distance sum
+   */
+  public double getDistance() {
+    return distance;
+  }
+
+  /**
+   * Get the number of points.
+   * @return the total size of all clusters
+   */
+  public long getTotal() {
+    long total = 0;
+    for (long c : count) {
+      total += c;
+    }
+    return total;
+  }
+
+  /**
+   * Reset to empty.
+   */
+  public void clear() {
+    Arrays.fill(sum, 0);
+    Arrays.fill(count, 0);
+    changed = 0;
+    distance = 0;
+  }
+
+  /**
+   * Add the partial sums of another, disjoint part of the data.
+   * @param other the other partial sums
+   */
+  public void add(PartialSums other) throws IllegalArgumentException {
+    if (other.count.length != count.length) {
+      throw new IllegalArgumentException("partial sums of different k cannot be merged!");
+    }
+    for (int i = 0; i < sum.length; i++) {
+      sum[i] += other.sum[i];
+    }
+    for (int i = 0; i < count.length; i++) {
+      count[i] += other.count[i];
+    }
+    changed += other.changed;
+    distance += other.distance;
+  }
+
+  /**
+   * Send these sums over a stream.
+   * @param out the stream to write to
+   * @throws IOException if writing fails
+   */
+  void writeTo(DataOutputStream out) throws IOException {
+    out.writeInt(count.length);
+    for (double s : sum) {
+      out.writeDouble(s);
+    }
+    for (long c : count) {
+      out.writeLong(c);
+    }
+    out.writeLong(changed);
+    out.writeDouble(distance);
+  }
+
+  /**
+   * Receive sums sent with writeTo.
+   * @param in the stream to read from
+   * @return the sums
+   * @throws IOException if reading fails
+   */
+  static PartialSums readFrom(DataInputStream in) throws IOException {
+    int k = in.readInt();
+    if (k <= 0) {
+      throw new IOException("bad partial sums: k = " + k);
+    }
+    PartialSums sums = new PartialSums(k);
+    for (int i = 0; i < sums.sum.length; i++) {
+      sums.sum[i] = in.readDouble();
+    }
+    for (int i = 0; i < k; i++) {
+      sums.count[i] = in.readLong();
+    }
+    sums.changed = in.readLong();
+    sums.distance = in.readDouble();
+    return sums;
+  }
+
+  /**
+   * Compute the new centers from the sums: the mean of each cluster.
+   * @param center where to put the interleaved x- and y-coordinates of the centers;
+   *               an empty cluster keeps its previous center
+   */
+  public void centers(double[] center) {
+    for (int i = 0; i < count.length; i++) {
+      if (count[i] > 0) {
+        center[2 * i] = sum[2 * i] / count[i];
+        center[2 * i + 1] = sum[2 * i + 1] / count[i];
+      }
+    }
+  }
+
+  /**
+   * Assign every point of a part of the data to its closest center and add it to these sums.
+   * @param data the points
+   * @param center the interleaved x- and y-coordinates of the centers
+   * @param cluster the assignments, indexed from offset
+   * @param offset the index of the first point in the assignments
+   * @param firstRound whether every point is being assigned for the first time
+   */
+  public void accumulate(PackedTuples data, double[] center, Assignments cluster, int offset,
+                         boolean firstRound) {
+    accumulate(data, 0, data.size(), center, cluster, offset, firstRound);
+  }
+
+  /**
+   * Assign a range of points to their closest centers and add them to these sums.
+   * @param data the points
+   * @param start the first point of the range
+   * @param end the point after the range
+   * @param center the interleaved x- and y-coordinates of the centers
+   * @param cluster the assignments, where point i is at offset + i; null to only sum
+   * @param offset the index of the first point of the data in the assignments
+   * @param firstRound whether every point is being assigned for the first time
+   */
+  void accumulate(PackedTuples data, int start, int end, double[] center, Assignments cluster,
+                  int offset, boolean firstRound) {
+    for (int i = start; i < end; i++) {
+      double x = data.getX(i);
+      double y = data.getY(i);
+      int c = KMeansImpl.nearest(x, y, center);
+      if (cluster != null && cluster.set(offset + i, c) || firstRound) {
+        changed++;
+      }
+      sum[2 * c] += x;
+      sum[2 * c + 1] += y;
+      count[c]++;
+
+      double diffX = x - center[2 * c];
+      double diffY = y - center[2 * c + 1];
+      distance += Math.sqrt(diffX * diffX + diffY * diffY);
+    }
+  }
+
+}
@@ -0,0 +1,141 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * PngWriter encodes an RGB image as PNG row by row, so that the image never has to be in
+ * memory as a whole: the rows are deflated as they come, and the compressed data goes out
+ * in IDAT chunks of at most CHUNK bytes.
+ */
+class PngWriter implements Closeable {
+  private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+  // the most compressed bytes in one IDAT chunk
+  private static final int CHUNK = 1 << 16;
+
+  private final DataOutputStream out;
+  private final int width;
+  private final int height;
+  private final ByteArrayOutputStream compressed;
+  private final Deflater zip;
+  private final DeflaterOutputStream deflater;
+  private final byte[] row;
+  private int rows;
+
+  /**
+   * Start a PNG image: write the signature and the header.
+   * @param out the stream to write to; closed with this writer
+   * @param width the width of the image in pixels
+   * @param height the height of the image in pixels
+   * @throws IOException if writing fails
+   */
+  PngWriter(OutputStream out, int width, int height) throws IOException {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("an image needs at least one pixel!");
+    }
+    this.out = new DataOutputStream(out);
+    this.width = width;
+    this.height = height;
+    this.compressed = new ByteArrayOutputStream(CHUNK);
+    this.zip = new Deflater(Deflater.BEST_SPEED);
+    this.deflater = new DeflaterOutputStream(compressed, zip);
+    // the filter type of the row, then 3 bytes per pixel
+    this.row = new byte[1 + 3 * width];
+
+    this.out.write(SIGNATURE);
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    DataOutputStream fields = new DataOutputStream(header);
+    fields.writeInt(width);
+    fields.writeInt(height);
+    fields.writeByte(8); // bits per sample
+    fields.writeByte(2); // truecolor
+    fields.writeByte(0); // deflate
+    fields.writeByte(0); // adaptive filtering
+    fields.writeByte(0); // no interlace
+    chunk("IHDR", header.toByteArray(), 0, header.size());
+  }
+
+  /**
+   * Add the next rows of the image.
+   * @param rgb the pixels as 0xRRGGBB, row by row, with the given stride
+   * @param count the number of rows
+   * @param stride the number of ints from one row to the next
+   * @throws IOException if writing fails
+   */
+  void writeRows(int[] rgb, int count, int stride) throws IOException {
+    if (rows + count > height) {
+      throw new IllegalStateException("more rows than the height of the image!");
+    }
+    for (int r = 0; r < count; r++) {
+      // filter type 0: the bytes as they are; a plot is mostly background and deflates well
+      row[0] = 0;
+      for (int x = 0; x < width; x++) {
+        int pixel = rgb[r * stride + x];
+        row[1 + 3 * x] = (byte) (pixel >> 16);
+        row[2 + 3 * x] = (byte) (pixel >> 8);
+        row[3 + 3 * x] = (byte) pixel;
+      }
+      deflater.write(row);
+      if (compressed.size() >= CHUNK) {
+        flushData();
+      }
+    }
+    rows += count;
+  }
+
+  /**
+   * Finish the image: write the remaining data and the end chunk, and close the stream.
+   * @throws IOException if writing fails, or not every row was written
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      if (rows != height) {
+        throw new IOException("only " + rows + " of " + height + " rows were written!");
+      }
+      deflater.finish();
+      flushData();
+      chunk("IEND", new byte[0], 0, 0);
+    } finally {
+      zip.end();
+      out.close();
+    }
+  }
+
+  /**
+   * Write the compressed data so far as IDAT chunks.
+   * @throws IOException if writing fails
+   */
+  private void flushData() throws IOException {
+    byte[] data = compressed.toByteArray();
+    compressed.reset();
+    for (int from = 0; from < data.length; from += CHUNK) {
+      chunk("IDAT", data, from, Math.min(CHUNK, data.length - from));
+    }
+  }
+
+  /**
+   * Write one chunk: its length, type, data and the CRC of the type and data.
+   * @param type the four-letter type
+   * @param data the data
+   * @param offset the first byte of data
+   * @param length the number of bytes of data
+   * @throws IOException if writing fails
+   */
+  private void chunk(String type, byte[] data, int offset, int length) throws IOException {
+    byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+    CRC32 crc = new CRC32();
+    crc.update(name);
+    crc.update(data, offset, length);
+    out.writeInt(length);
+    out.write(name);
+    out.write(data, offset, length);
+    out.writeInt((int) crc.getValue());
+  }
+
+}
@@ -0,0 +1,297 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * RansacRegression fits a line that ignores outliers: it tries lines through random pairs of
+ * points, keeps the one with the most inliers - points within a threshold of the line,
+ * measured along y - and refits that line by least squares on its inliers.
+ *
+ * Trials run in batches, and a batch is scored in one pass over the data that the threads
+ * split between them, each counting the inliers of every line of the batch in its range.
+ * After each batch the number of trials still needed is recomputed from the best inlier
+ * ratio so far, so a clean dataset stops after a batch or two. The pairs are drawn in order
+ * from one seeded generator, so the result does not depend on the number of threads.
+ */
+public class RansacRegression implements Algorithm {
+  // the trials scored per pass over the data
+  private static final int BATCH = 32;
+
+  private final double threshold;
+  private double confidence;
+  private int maxTrials;
+  private int parallelism;
+  private long seed;
+  private double slope;
+  private double intercept;
+  private long inliers;
+  private int trials;
+  private RegressionStats stats;
+
+  /**
+   * Construct a RansacRegression object.
+   * @param threshold how far (along y) from a line a point may be and still be an inlier
+   */
+  public RansacRegression(double threshold) throws IllegalArgumentException {
+    if (!(threshold > 0)) {
+      throw new IllegalArgumentException("the threshold has to be positive!");
+    }
+    this.threshold = threshold;
+    this.confidence = 0.99;
+    this.maxTrials = 1000;
+    this.parallelism = Runtime.getRuntime().availableProcessors();
+    this.seed = 0x5EEDL;
+  }
+
+  /**
+   * Set the probability of drawing at least one pair of inliers before stopping early.
+   * @param confidence the probability, in (0, 1)
+   */
+  public void setConfidence(double confidence) throws IllegalArgumentException {
+    if (!(confidence > 0 && confidence < 1)) {
+      throw new IllegalArgumentException("confidence has to be in (0, 1)!");
+    }
+    this.confidence = confidence;
+  }
+
+  /**
+   * Set the most trials to run, however poor the inlier ratio.
+   * @param maxTrials the number of trials
+   */
+  public void setMaxTrials(int maxTrials) throws IllegalArgumentException {
+    if (maxTrials <= 0) {
+      throw new IllegalArgumentException("at least one trial is needed!");
+    }
+    this.maxTrials = maxTrials;
+  }
+
+  /**
+   * Set the number of threads that score the trials.
+   * @param parallelism the number of threads
+   */
+  public void setParallelism(int parallelism) throws IllegalArgumentException {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism has to be positive!");
+    }
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Set the seed of the random pairs.
+   * @param seed the seed
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Get the slope.
+   * @return the slope
+   */
+  public double getSlope() {
+    return slope;
+  }
+
+  /**
+   * Get the intercept.
+   * @return the intercept
+   */
+  public double getIntercept() {
+    return intercept;
+  }
+
+  /**
+   * Get the number of inliers of the best trial.
+   * @return the number of inliers
+   */
+  public long getInliers() {
+    return inliers;
+  }
+
+  /**
+   * Get the number of trials run.
+   * @return the number of trials
+   */
+  public int getTrials() {
+    return trials;
+  }
+
+  /**
+   * Get the fitted model, with the fit statistics of the inliers.
+   * @return the fitted model
+   */
+  public LinearRegressionModel getModel() {
+    return stats.toModel();
+  }
+
+  @Override
+  public void execute(ListOfTuplesImpl data) {
+    execute(data.pack(false));
+  }
+
+  /**
+   * Fit a line to packed data.
+   * @param data the points
+   */
+  public void execute(PackedTuples data) throws IllegalArgumentException {
+    int n = data.size();
+    if (n < 2) {
+      throw new IllegalArgumentException("at least two points are needed!");
+    }
+    SplittableRandom random = new SplittableRandom(seed);
+    int parts = Math.max(1, Math.min(parallelism, n / 65536));
+    ExecutorService pool = parts > 1 ? Executors.newFixedThreadPool(parts) : null;
+    try {
+      double bestSlope = Double.NaN;
+      double bestIntercept = Double.NaN;
+      long bestCount = -1;
+      int needed = maxTrials;
+      trials = 0;
+      while (trials < needed) {
+        /*
+         * draw a batch of lines through random pairs with different x
+         */
+        int batch = Math.min(BATCH, needed - trials);
+        double[] slopes = new double[batch];
+        double[] intercepts = new double[batch];
+        for (int t = 0; t < batch; t++) {
+          slopes[t] = Double.NaN;
+          for (int tries = 0; tries < 100 && Double.isNaN(slopes[t]); tries++) {
+            int i = random.nextInt(n);
+            int j = random.nextInt(n);
+            if (data.getX(i) != data.getX(j)) {
+              slopes[t] = (data.getY(j) - data.getY(i)) / (data.getX(j) - data.getX(i));
+              intercepts[t] = data.getY(i) - slopes[t] * data.getX(i);
+            }
+          }
+        }
+
+        long[] counts = score(data, slopes, intercepts, parts, pool);
+        for (int t = 0; t < batch; t++) {
+          if (counts[t] > bestCount) {
+            bestCount = counts[t];
+            bestSlope = slopes[t];
+            bestIntercept = intercepts[t];
+          }
+        }
+        trials += batch;
+        needed = Math.min(maxTrials, trialsNeeded((double) bestCount / n));
+      }
+      if (Double.isNaN(bestSlope)) {
+        throw new IllegalArgumentException("at least two different x-coordinates are needed!");
+      }
+
+      /*
+       * refit by least squares on the inliers of the best line
+       */
+      RegressionStats refit = new RegressionStats();
+      for (int i = 0; i < n; i++) {
+        double x = data.getX(i);
+        double y = data.getY(i);
+        if (Math.abs(y - bestSlope * x - bestIntercept) <= threshold) {
+          refit.add(x, y);
+        }
+      }
+      stats = refit;
+      inliers = bestCount;
+      if (refit.getCount() > 2) {
+        slope = refit.slope();
+        intercept = refit.intercept();
+      }
+      else {
+        slope = bestSlope;
+        intercept = bestIntercept;
+      }
+    } finally {
+      if (pool != null) {
+        pool.shutdown();
+      }
+    }
+  }
+
+  /**
+   * The number of trials after which a pair of inliers has been drawn with the wanted
+   * confidence.
+   * @param ratio the fraction of inliers
+   * @return the number of trials
+   */
+  private int trialsNeeded(double ratio) {
+    double bothInliers = ratio * ratio;
+    if (bothInliers >= 1) {
+      return 1;
+    }
+    if (bothInliers <= 0) {
+      return maxTrials;
+    }
+    double trials = Math.ceil(Math.log(1 - confidence) / Math.log(1 - bothInliers));
+    return (int) Math.min(Integer.MAX_VALUE, trials);
+  }
+
+  /**
+   * Count the inliers of a batch of lines, in one parallel pass over the data.
+   * @param data the points
+   * @param slopes the slopes of the lines; NaN for no line
+   * @param intercepts the intercepts of the lines
+   * @param parts the number of ranges of points
+   * @param pool the threads, or null for this thread only
+   * @return the number of inliers of each line
+   */
+  private long[] score(PackedTuples data, double[] slopes, double[] intercepts, int parts,
+                       ExecutorService pool) throws IllegalStateException {
+    if (pool == null) {
+      return count(data, slopes, intercepts, 0, data.size());
+    }
+    int n = data.size();
+    List<Future<long[]>> partials = new ArrayList<Future<long[]>>();
+    for (int p = 0; p < parts; p++) {
+      int start = (int) ((long) n * p / parts);
+      int end = (int) ((long) n * (p + 1) / parts);
+      partials.add(pool.submit(() -> count(data, slopes, intercepts, start, end)));
+    }
+    long[] counts = new long[slopes.length];
+    try {
+      for (Future<long[]> partial : partials) {
+        long[] part = partial.get();
+        for (int t = 0; t < counts.length; t++) {
+          counts[t] += part[t];
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted while fitting", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("scoring a range of points failed", e.getCause());
+    }
+    return counts;
+  }
+
+  /**
+   * Count the inliers of a batch of lines in a range of points.
+   * @param data the points
+   * @param slopes the slopes of the lines; NaN for no line
+   * @param intercepts the intercepts of the lines
+   * @param start the first point
+   * @param end the point after the last
+   * @return the number of inliers of each line in the range
+   */
+  private long[] count(PackedTuples data, double[] slopes, double[] intercepts, int start,
+                       int end) {
+    long[] counts = new long[slopes.length];
+    for (int i = start; i < end; i++) {
+      double x = data.getX(i);
+      double y = data.getY(i);
+      for (int t = 0; t < slopes.length; t++) {
+        // NaN never compares true, so a missing line never counts
+        if (Math.abs(y - slopes[t] * x - intercepts[t]) <= threshold) {
+          counts[t]++;
+        }
+      }
+    }
+    return counts;
+  }
+
+}
@@ -0,0 +1,70 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RegressionCoordinator fits a line to data sharded across ShardWorker processes.
+ * Each worker computes the RegressionStats of its own shard and the coordinator merges them,
+ * which gives exactly the global fit in a single round trip.
+ *
+ * Usage: java RegressionCoordinator host:port...
+ */
+public class RegressionCoordinator {
+
+  /**
+   * Fit a line over all the workers' shards.
+   * @param addresses the addresses of the workers
+   * @return the merged statistics, with slope, intercept and confidence intervals
+   * @throws IOException if a worker fails
+   */
+  public static RegressionStats fit(List<InetSocketAddress> addresses) throws IOException {
+    List<ShardConnection> workers = new ArrayList<ShardConnection>();
+    try {
+      for (InetSocketAddress address : addresses) {
+        workers.add(new ShardConnection(address));
+      }
+      // ask everyone first, so that the workers compute at the same time
+      for (ShardConnection worker : workers) {
+        worker.out.writeInt(ShardWorker.STATS);
+        worker.out.flush();
+      }
+      RegressionStats stats = new RegressionStats();
+      for (ShardConnection worker : workers) {
+        stats.merge(RegressionStats.readFrom(worker.in));
+      }
+      return stats;
+    } finally {
+      for (ShardConnection worker : workers) {
+        worker.close();
+      }
+    }
+  }
+
+  /**
+   * Main method. Fit a line to the data of the given workers and print it.
+   * @param args host:port of each worker
+   * @throws IOException if a worker fails
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.out.println("usage: java RegressionCoordinator host:port...");
+      return;
+    }
+    List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+    for (String arg : args) {
+      addresses.add(KMeansCoordinator.parseAddress(arg));
+    }
+
+    RegressionStats stats = fit(addresses);
+    double[] slope = stats.slopeConfidenceInterval(0.95);
+    double[] intercept = stats.interceptConfidenceInterval(0.95);
+    System.out.println("fitted " + stats.getCount() + " points");
+    System.out.println("y = " + stats.slope() + " x + " + stats.intercept());
+    System.out.println("95% interval of the slope: [" + slope[0] + ", " + slope[1] + "]");
+    System.out.println("95% interval of the intercept: [" + intercept[0] + ", "
+            + intercept[1] + "]");
+    System.out.println("R^2 = " + stats.rSquared());
+  }
+
+}
@@ -0,0 +1,365 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * RegressionStats holds the sufficient statistics of a simple linear regression:
+ * the (weighted) count, the means of x and y, and the centered sums of squares and products.
+ *
+ * Statistics of disjoint parts of the data merge exactly (Chan et al.), so the parts can be
+ * computed anywhere - on other threads, or in other processes - and only these few numbers
+ * have to travel. Centered sums are used instead of raw sums of squares, which keeps the fit
+ * accurate for data far away from the origin.
+ *
+ * Weights are frequency weights: a point of weight 2 counts like two points.
+ */
+public final class RegressionStats implements TupleAggregator<RegressionStats> {
+  private long count;
+  private double weight;
+  private double meanX;
+  private double meanY;
+  private double sxx;
+  private double syy;
+  private double sxy;
+
+  /**
+   * Add a point.
+   * @param x the x coordinate
+   * @param y the y coordinate
+   */
+  public void add(double x, double y) {
+    add(x, y, 1);
+  }
+
+  /**
+   * Add a weighted point.
+   * @param x the x coordinate
+   * @param y the y coordinate
+   * @param w the weight of the point; a point of weight 0 is ignored
+   */
+  public void add(double x, double y, double w) throws IllegalArgumentException {
+    if (!(w >= 0)) {
+      throw new IllegalArgumentException("weights cannot be negative!");
+    }
+    if (w == 0) {
+      return;
+    }
+    count++;
+    weight += w;
+    double diffX = x - meanX;
+    double diffY = y - meanY;
+    meanX += diffX * w / weight;
+    meanY += diffY * w / weight;
+    sxx += w * diffX * (x - meanX);
+    syy += w * diffY * (y - meanY);
+    sxy += w * diffX * (y - meanY);
+  }
+
+  /**
+   * Add every point of some packed data, with its weight if the data is weighted.
+   * @param data the points
+   */
+  public void addAll(PackedTuples data) {
+    accumulate(data, 0, data.size());
+  }
+
+  @Override
+  public RegressionStats empty() {
+    return new RegressionStats();
+  }
+
+  @Override
+  public void accumulate(PackedTuples data, int start, int end) {
+    for (int i = start; i < end; i++) {
+      add(data.getX(i), data.getY(i), data.getWeight(i));
+    }
+  }
+
+  @Override
+  public void combine(RegressionStats other) {
+    merge(other);
+  }
+
+  /**
+   * Merge the statistics of another, disjoint part of the data into these.
+   * @param other the other statistics
+   */
+  public void merge(RegressionStats other) {
+    if (other.weight == 0) {
+      return;
+    }
+    double total = weight + other.weight;
+    double diffX = other.meanX - meanX;
+    double diffY = other.meanY - meanY;
+    double factor = weight * other.weight / total;
+    sxx += other.sxx + diffX * diffX * factor;
+    syy += other.syy + diffY * diffY * factor;
+    sxy += other.sxy + diffX * diffY * factor;
+    meanX += diffX * other.weight / total;
+    meanY += diffY * other.weight / total;
+    weight = total;
+    count += other.count;
+  }
+
+  /**
+   * Get the number of points.
+   * @return the number of points
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Get the total weight of the points.
+   * @return the total weight; the number of points if unweighted
+   */
+  public double getWeight() {
+    return weight;
+  }
+
+  /**
+   * Get the slope of the least squares line.
+   * @return the slope
+   */
+  public double slope() {
+    return sxy / sxx;
+  }
+
+  /**
+   * Get the intercept of the least squares line.
+   * @return the intercept
+   */
+  public double intercept() {
+    return meanY - slope() * meanX;
+  }
+
+  /**
+   * Get the coefficient of determination.
+   * @return R squared; 1 if all y are equal, which the line fits exactly
+   */
+  public double rSquared() {
+    if (syy == 0 && sxx > 0) {
+      return 1;
+    }
+    return sxy * sxy / (sxx * syy);
+  }
+
+  /**
+   * Get the standard error of the residuals.
+   * @return the residual standard error, NaN with fewer than 3 points
+   */
+  public double residualStdError() {
+    return Math.sqrt(residualVariance());
+  }
+
+  /**
+   * Get the standard error of the slope.
+   * @return the standard error
+   */
+  public double slopeStdError() {
+    return Math.sqrt(residualVariance() / sxx);
+  }
+
+  /**
+   * Get the standard error of the intercept.
+   * @return the standard error
+   */
+  public double interceptStdError() {
+    return Math.sqrt(residualVariance() * (1 / weight + meanX * meanX / sxx));
+  }
+
+  /**
+   * Get a confidence interval for the slope, from Student's t distribution.
+   * @param level the confidence level, e.g. 0.95
+   * @return {lower, upper}
+   */
+  public double[] slopeConfidenceInterval(double level) {
+    double half = tQuantile(level) * slopeStdError();
+    return new double[] {slope() - half, slope() + half};
+  }
+
+  /**
+   * Get a confidence interval for the intercept, from Student's t distribution.
+   * @param level the confidence level, e.g. 0.95
+   * @return {lower, upper}
+   */
+  public double[] interceptConfidenceInterval(double level) {
+    double half = tQuantile(level) * interceptStdError();
+    return new double[] {intercept() - half, intercept() + half};
+  }
+
+  /**
+   * Turn these statistics into a model.
+   * @return the fitted model, with its fit statistics
+   */
+  public LinearRegressionModel toModel() {
+    return new LinearRegressionModel(slope(), intercept(), count, rSquared(),
+            residualStdError());
+  }
+
+  /**
+   * The variance of the residuals, with two degrees of freedom used by the fit.
+   * @return the residual variance, NaN with fewer than 3 points
+   */
+  private double residualVariance() {
+    if (weight <= 2) {
+      return Double.NaN;
+    }
+    return Math.max(0, syy - sxy * sxy / sxx) / (weight - 2);
+  }
+
+  /**
+   * The two-sided quantile of Student's t distribution for the residual degrees of freedom.
+   * @param level the confidence level, in (0, 1)
+   * @return t such that P(|T| &lt;= t) = level
+   */
+  private double tQuantile(double level) throws IllegalArgumentException {
+    if (level <= 0 || level >= 1) {
+      throw new IllegalArgumentException("the confidence level has to be in (0, 1)!");
+    }
+    double df = weight - 2;
+    if (!(df > 0)) {
+      return Double.NaN;
+    }
+
+    /*
+     * bisection on the distribution function; it is only called once per interval
+     */
+    double lo = 0;
+    double hi = 1;
+    while (twoSidedT(hi, df) < level) {
+      hi *= 2;
+    }
+    for (int i = 0; i < 100; i++) {
+      double mid = 0.5 * (lo + hi);
+      if (twoSidedT(mid, df) < level) {
+        lo = mid;
+      }
+      else {
+        hi = mid;
+      }
+    }
+    return 0.5 * (lo + hi);
+  }
+
+  /**
+   * P(|T| &lt;= t) for Student's t distribution with df degrees of freedom.
+   * @param t the bound, t &gt;= 0
+   * @param df the degrees of freedom
+   * @return the probability
+   */
+  private static double twoSidedT(double t, double df) {
+    return 1 - incompleteBeta(df / (df + t * t), df / 2, 0.5);
+  }
+
+  /**
+   * The regularized incomplete beta function I_x(a, b).
+   * @param x the bound, in [0, 1]
+   * @param a the first shape parameter
+   * @param b the second shape parameter
+   * @return I_x(a, b)
+   */
+  private static double incompleteBeta(double x, double a, double b) {
+    if (x <= 0) {
+      return 0;
+    }
+    if (x >= 1) {
+      return 1;
+    }
+    double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b)
+            + a * Math.log(x) + b * Math.log(1 - x));
+    // the continued fraction converges quickly on this side; use the symmetry otherwise
+    if (x < (a + 1) / (a + b + 2)) {
+      return front * betaFraction(x, a, b) / a;
+    }
+    return 1 - front * betaFraction(1 - x, b, a) / b;
+  }
+
+  /**
+   * The continued fraction of the incomplete beta function (modified Lentz's method).
+   * @param x the bound
+   * @param a the first shape parameter
+   * @param b the second shape parameter
+   * @return the value of the continued fraction
+   */
+  private static double betaFraction(double x, double a, double b) {
+    final double tiny = 1e-300;
+    double c = 1;
+    double d = 1 - (a + b) * x / (a + 1);
+    d = 1 / (Math.abs(d) < tiny ? tiny : d);
+    double result = d;
+    for (int m = 1; m <= 300; m++) {
+      int m2 = 2 * m;
+      double aa = m * (b - m) * x / ((a + m2 - 1) * (a + m2));
+      d = 1 + aa * d;
+      d = 1 / (Math.abs(d) < tiny ? tiny : d);
+      c = 1 + aa / c;
+      c = Math.abs(c) < tiny ? tiny : c;
+      result *= d * c;
+
+      aa = -(a + m) * (a + b + m) * x / ((a + m2) * (a + m2 + 1));
+      d = 1 + aa * d;
+      d = 1 / (Math.abs(d) < tiny ? tiny : d);
+      c = 1 + aa / c;
+      c = Math.abs(c) < tiny ? tiny : c;
+      double delta = d * c;
+      result *= delta;
+      if (Math.abs(delta - 1) < 1e-15) {
+        break;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The logarithm of the gamma function (Lanczos approximation).
+   * @param x the argument, x &gt; 0
+   * @return ln(Gamma(x))
+   */
+  private static double logGamma(double x) {
+    final double[] coefficients = {76.18009172947146, -86.50532032941677, 24.01409824083091,
+        -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5};
+    double y = x;
+    double tmp = x + 5.5;
+    tmp -= (x + 0.5) * Math.log(tmp);
+    double series = 1.000000000190015;
+    for (double c : coefficients) {
+      series += c / ++y;
+    }
+    return -tmp + Math.log(2.5066282746310005 * series / x);
+  }
+
+  /**
+   * Send these statistics over a stream.
+   * @param out the stream to write to
+   * @throws IOException if writing fails
+   */
+  void writeTo(DataOutputStream out) throws IOException {
+    out.writeLong(count);
+    out.writeDouble(weight);
+    out.writeDouble(meanX);
+    out.writeDouble(meanY);
+    out.writeDouble(sxx);
+    out.writeDouble(syy);
+    out.writeDouble(sxy);
+  }
+
+  /**
+   * Receive statistics sent with writeTo.
+   * @param in the stream to read from
+   * @return the statistics
+   * @throws IOException if reading fails
+   */
+  static RegressionStats readFrom(DataInputStream in) throws IOException {
+    RegressionStats stats = new RegressionStats();
+    stats.count = in.readLong();
+    stats.weight = in.readDouble();
+    stats.meanX = in.readDouble();
+    stats.meanY = in.readDouble();
+    stats.sxx = in.readDouble();
+    stats.syy = in.readDouble();
+    stats.sxy = in.readDouble();
+    return stats;
+  }
+
+}
@@ -0,0 +1,279 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Sampling shrinks a dataset to a small summary that the algorithms can run on in its place,
+ * trading exactness for speed.
+ *
+ * A reservoir sample is a uniform random sample of m points, drawn in one streaming pass
+ * without knowing the size of the data in advance. Fit on it, a line comes with honest
+ * confidence intervals (RegressionStats) for the line of the full data.
+ *
+ * A coreset is a weighted sample for k-means (the lightweight coresets of Bachem, Lucic and
+ * Krause): points far from the mean are sampled more often, and every sampled point is
+ * weighted by the inverse of its probability, so that the weighted cost of any k centers on
+ * the coreset is an unbiased estimate of their cost on the full data. With m in the order of
+ * k log k / epsilon^2 points the estimate is within a factor 1 +- epsilon with high probability.
+ * KMeansImpl clusters a coreset by weighted means, and its model then assigns the full data.
+ */
+public final class Sampling {
+
+  /**
+   * Sampling only has static methods.
+   */
+  private Sampling() {
+  }
+
+  /**
+   * Draw a uniform sample from a list of Tuples in one pass.
+   * @param data the data
+   * @param m the size of the sample
+   * @param seed the seed of the random choices
+   * @return m points, or all of them if there are fewer
+   */
+  public static PackedTuples reservoir(ListData<Tuple> data, int m, long seed) {
+    Reservoir reservoir = new Reservoir(m, seed);
+    for (Tuple t : data.sofar()) {
+      reservoir.offer(t.getX(), t.getY());
+    }
+    return reservoir.sample();
+  }
+
+  /**
+   * Draw a uniform sample from packed data.
+   * @param data the data
+   * @param m the size of the sample
+   * @param seed the seed of the random choices
+   * @return m points, or all of them if there are fewer
+   */
+  public static PackedTuples reservoir(PackedTuples data, int m, long seed) {
+    Reservoir reservoir = new Reservoir(m, seed);
+    reservoir.offer(data);
+    return reservoir.sample();
+  }
+
+  /**
+   * Draw a uniform sample from a file, streaming it chunk by chunk.
+   * @param data the file-backed data
+   * @param m the size of the sample
+   * @param seed the seed of the random choices
+   * @return m points, or all of them if there are fewer
+   * @throws IOException if the file cannot be read
+   */
+  public static PackedTuples reservoir(TupleFile data, int m, long seed) throws IOException {
+    Reservoir reservoir = new Reservoir(m, seed);
+    data.forEachChunk(1 << 16, (chunk, offset) -> reservoir.offer(chunk));
+    return reservoir.sample();
+  }
+
+  /**
+   * Build a k-means coreset of a list of Tuples.
+   * @param data the data
+   * @param m the number of points to sample
+   * @param seed the seed of the random choices
+   * @return m weighted points
+   */
+  public static PackedTuples coreset(ListData<Tuple> data, int m, long seed) {
+    return coreset(PackedTuples.pack(data.sofar(), false), m, seed);
+  }
+
+  /**
+   * Build a k-means coreset of packed data, in two passes: one for the mean, one for the
+   * distances to it.
+   * @param data the data, unweighted
+   * @param m the number of points to sample, with replacement
+   * @param seed the seed of the random choices
+   * @return m weighted points whose weights add up to about the size of the data
+   */
+  public static PackedTuples coreset(PackedTuples data, int m, long seed)
+          throws IllegalArgumentException {
+    int n = data.size();
+    if (n == 0 || m <= 0) {
+      throw new IllegalArgumentException("need some data and a positive sample size!");
+    }
+    double meanX = 0;
+    double meanY = 0;
+    for (int i = 0; i < n; i++) {
+      meanX += data.getX(i);
+      meanY += data.getY(i);
+    }
+    meanX /= n;
+    meanY /= n;
+
+    // cumulative[i] = the sum of the squared distances of the points before i, and then i
+    double[] cumulative = new double[n];
+    double total = 0;
+    for (int i = 0; i < n; i++) {
+      double diffX = data.getX(i) - meanX;
+      double diffY = data.getY(i) - meanY;
+      total += diffX * diffX + diffY * diffY;
+      cumulative[i] = total;
+    }
+
+    /*
+     * half of the probability is uniform, half proportional to the squared distance
+     */
+    SplittableRandom random = new SplittableRandom(seed);
+    double[] coords = new double[2 * m];
+    double[] weights = new double[m];
+    for (int s = 0; s < m; s++) {
+      int i;
+      if (total == 0 || random.nextBoolean()) {
+        i = random.nextInt(n);
+      }
+      else {
+        i = upperBound(cumulative, random.nextDouble() * total);
+      }
+      double squared = cumulative[i] - (i > 0 ? cumulative[i - 1] : 0);
+      double q = 0.5 / n + (total == 0 ? 0.5 / n : 0.5 * squared / total);
+      coords[2 * s] = data.getX(i);
+      coords[2 * s + 1] = data.getY(i);
+      weights[s] = 1 / (m * q);
+    }
+    return new PackedTuples(coords).withWeights(weights);
+  }
+
+  /**
+   * The first index of a non-decreasing array with a value above a target.
+   * @param sorted the array
+   * @param target the target, below the last value
+   * @return the index
+   */
+  private static int upperBound(double[] sorted, double target) {
+    int lo = 0;
+    int hi = sorted.length - 1;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (sorted[mid] <= target) {
+        lo = mid + 1;
+      }
+      else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * A reservoir of m points, filled by Li's algorithm L: once the reservoir is full, it draws
+   * how many points to skip before the next one to keep, so that it needs O(m log(n / m))
+   * random numbers instead of one per point.
+   */
+  private static final class Reservoir {
+    private final double[] coords;
+    private final int m;
+    private final SplittableRandom random;
+    // the number of points offered so far
+    private long seen;
+    // the index of the next point to keep, once the reservoir is full
+    private long next;
+    private double w;
+
+    /**
+     * Construct an empty reservoir.
+     * @param m the size of the sample
+     * @param seed the seed of the random choices
+     */
+    Reservoir(int m, long seed) throws IllegalArgumentException {
+      if (m <= 0) {
+        throw new IllegalArgumentException("the sample size has to be positive!");
+      }
+      this.coords = new double[2 * m];
+      this.m = m;
+      this.random = new SplittableRandom(seed);
+      this.next = Long.MAX_VALUE;
+    }
+
+    /**
+     * Offer the next point of the stream.
+     * @param x the x coordinate
+     * @param y the y coordinate
+     */
+    void offer(double x, double y) {
+      if (seen < m) {
+        fill(x, y);
+      }
+      else {
+        if (seen == next) {
+          keep(x, y);
+        }
+        seen++;
+      }
+    }
+
+    /**
+     * Offer the next points of the stream, jumping straight to the ones kept.
+     * @param chunk the points
+     */
+    void offer(PackedTuples chunk) {
+      int i = 0;
+      while (seen < m && i < chunk.size()) {
+        fill(chunk.getX(i), chunk.getY(i));
+        i++;
+      }
+      // the index in the stream of the first point of the chunk
+      long base = seen - i;
+      long end = base + chunk.size();
+      while (next < end) {
+        int j = (int) (next - base);
+        keep(chunk.getX(j), chunk.getY(j));
+      }
+      seen = Math.max(seen, end);
+    }
+
+    /**
+     * Put one of the first m points into the reservoir.
+     * @param x the x coordinate
+     * @param y the y coordinate
+     */
+    private void fill(double x, double y) {
+      coords[(int) (2 * seen)] = x;
+      coords[(int) (2 * seen + 1)] = y;
+      seen++;
+      if (seen == m) {
+        w = Math.exp(Math.log(uniform()) / m);
+        next = m - 1 + skip();
+      }
+    }
+
+    /**
+     * Replace a random point of the full reservoir, and draw the next point to keep.
+     * @param x the x coordinate
+     * @param y the y coordinate
+     */
+    private void keep(double x, double y) {
+      int slot = random.nextInt(m);
+      coords[2 * slot] = x;
+      coords[2 * slot + 1] = y;
+      w *= Math.exp(Math.log(uniform()) / m);
+      next += skip();
+    }
+
+    /**
+     * Draw the distance to the next point to keep.
+     * @return at least 1
+     */
+    private long skip() {
+      double skipped = Math.floor(Math.log(uniform()) / Math.log(1 - w));
+      return skipped >= Long.MAX_VALUE / 2 ? Long.MAX_VALUE / 2 : (long) skipped + 1;
+    }
+
+    /**
+     * Draw uniformly from (0, 1], so that the logarithm is finite.
+     * @return the random number
+     */
+    private double uniform() {
+      return 1 - random.nextDouble();
+    }
+
+    /**
+     * Get the sample drawn so far.
+     * @return the sample
+     */
+    PackedTuples sample() {
+      return new PackedTuples(Arrays.copyOf(coords, (int) (2 * Math.min(seen, m))));
+    }
+  }
+
+}
@@ -0,0 +1,44 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * ShardConnection is one open connection from a coordinator to a ShardWorker.
+ */
+class ShardConnection {
+  final Socket socket;
+  final DataInputStream in;
+  final DataOutputStream out;
+  long size;
+
+  /**
+   * Connect to a worker.
+   * @param address the address of the worker
+   * @throws IOException if the worker cannot be reached
+   */
+  ShardConnection(InetSocketAddress address) throws IOException {
+    socket = new Socket();
+    socket.connect(address);
+    socket.setTcpNoDelay(true);
+    in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+  }
+
+  /**
+   * End the connection politely, leaving the worker waiting for the next one.
+   * @throws IOException if closing the socket fails
+   */
+  void close() throws IOException {
+    try {
+      out.writeInt(ShardWorker.CLOSE);
+      out.flush();
+    } catch (IOException e) {
+      // the worker is gone already
+    }
+    socket.close();
+  }
+}
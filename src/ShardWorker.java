@@ -0,0 +1,231 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * ShardWorker owns one shard of a dataset, loaded from a TupleFile, and answers requests
+ * about it over a socket, so that the data never has to leave the worker's process.
+ *
+ * The protocol is a stream of requests, each an int opcode followed by its arguments,
+ * in the big-endian encoding of DataOutputStream:
+ * SIZE - reply with the number of points (a long);
+ * POINTS m i1..im (an int and m longs) - reply with the m points as (x, y) doubles;
+ * STEP first k c1..ck (a boolean, an int and 2k doubles) - assign the shard to the given
+ * centers and reply with its PartialSums;
+ * FARTHEST m k c1..ck (two ints and 2k doubles) - reply with the m points farthest from the
+ * given centers of the clusters the last STEP assigned them to, farthest first, as
+ * (squared distance, x, y) doubles, padded with zeros;
+ * STATS - reply with the RegressionStats of the shard;
+ * CLOSE - end this connection and wait for the next one;
+ * SHUTDOWN - exit.
+ *
+ * The protocol has no authentication, so a worker only listens on the loopback interface
+ * unless it is given the address to bind to.
+ *
+ * Usage: java ShardWorker port shard.bin [bind address]
+ */
+public class ShardWorker {
+  static final int CLOSE = 0;
+  static final int SIZE = 1;
+  static final int POINTS = 2;
+  static final int STEP = 3;
+  static final int SHUTDOWN = 4;
+  static final int STATS = 5;
+  static final int FARTHEST = 6;
+  // the most centers a STEP may send, so that a bad request cannot exhaust the memory
+  static final int MAX_K = 1 << 20;
+
+  private final PackedTuples shard;
+  // the assignments of the shard's points, kept between STEPs, and their number of clusters
+  private Assignments cluster;
+  private int k;
+
+  /**
+   * Construct a ShardWorker object.
+   * @param shard the points this worker owns
+   */
+  public ShardWorker(PackedTuples shard) {
+    this.shard = shard;
+  }
+
+  /**
+   * Load a whole TupleFile into memory, in its own precision.
+   * @param path the path of the file
+   * @return the points
+   * @throws IOException if the file cannot be read
+   */
+  static PackedTuples load(String path) throws IOException {
+    try (TupleFile file = TupleFile.open(path)) {
+      if (file.size() > Integer.MAX_VALUE) {
+        throw new IOException("shard " + path + " is too large for one worker!");
+      }
+      int n = (int) file.size();
+      double[] coords = file.isSinglePrecision() ? null : new double[2 * n];
+      float[] coordsF = file.isSinglePrecision() ? new float[2 * n] : null;
+      file.forEachChunk(1 << 20, (chunk, offset) -> {
+        if (coordsF != null) {
+          System.arraycopy(chunk.floats(), 0, coordsF, 2 * (int) offset, 2 * chunk.size());
+        }
+        else {
+          System.arraycopy(chunk.doubles(), 0, coords, 2 * (int) offset, 2 * chunk.size());
+        }
+      });
+      return coordsF != null ? new PackedTuples(coordsF) : new PackedTuples(coords);
+    }
+  }
+
+  /**
+   * Serve connections on a port of the loopback interface until a SHUTDOWN request arrives.
+   * @param port the port to listen on
+   * @throws IOException if the server socket fails
+   */
+  public void serve(int port) throws IOException {
+    serve(InetAddress.getLoopbackAddress(), port);
+  }
+
+  /**
+   * Serve connections on a port until a SHUTDOWN request arrives.
+   * @param bind the address of the interface to listen on
+   * @param port the port to listen on
+   * @throws IOException if the server socket fails
+   */
+  public void serve(InetAddress bind, int port) throws IOException {
+    try (ServerSocket server = new ServerSocket(port, 50, bind)) {
+      boolean running = true;
+      while (running) {
+        try (Socket socket = server.accept()) {
+          socket.setTcpNoDelay(true);
+          running = handle(socket);
+        } catch (IOException e) {
+          // a client went away or sent a bad request; only its connection is dropped
+          System.err.println("dropped a connection: " + e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Answer the requests of one connection.
+   * @param socket the connection
+   * @return false if the worker should shut down
+   * @throws IOException if the connection fails
+   */
+  private boolean handle(Socket socket) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(socket.getOutputStream()));
+    while (true) {
+      int opcode = in.readInt();
+      switch (opcode) {
+        case SIZE:
+          out.writeLong(shard.size());
+          break;
+        case POINTS:
+          int m = in.readInt();
+          for (int i = 0; i < m; i++) {
+            long index = in.readLong();
+            if (index < 0 || index >= shard.size()) {
+              throw new IOException("no point " + index + " in a shard of " + shard.size());
+            }
+            out.writeDouble(shard.getX((int) index));
+            out.writeDouble(shard.getY((int) index));
+          }
+          break;
+        case STEP:
+          step(in, out);
+          break;
+        case FARTHEST:
+          farthest(in, out);
+          break;
+        case STATS:
+          RegressionStats stats = new RegressionStats();
+          stats.addAll(shard);
+          stats.writeTo(out);
+          break;
+        case CLOSE:
+          return true;
+        case SHUTDOWN:
+          return false;
+        default:
+          throw new IOException("unknown opcode " + opcode);
+      }
+      out.flush();
+    }
+  }
+
+  /**
+   * Handle a STEP request: one k-means assignment step over the shard.
+   * @param in the request stream, positioned after the opcode
+   * @param out the reply stream
+   * @throws IOException if the connection fails
+   */
+  private void step(DataInputStream in, DataOutputStream out) throws IOException {
+    boolean first = in.readBoolean();
+    int k = in.readInt();
+    if (k <= 0 || k > MAX_K) {
+      throw new IOException("bad STEP: k = " + k);
+    }
+    double[] center = new double[2 * k];
+    for (int i = 0; i < center.length; i++) {
+      center[i] = in.readDouble();
+    }
+
+    if (first || cluster == null || k != this.k) {
+      cluster = new Assignments(shard.size(), k);
+      this.k = k;
+    }
+    PartialSums sums = new PartialSums(k);
+    sums.accumulate(shard, center, cluster, 0, first);
+    sums.writeTo(out);
+  }
+
+  /**
+   * Handle a FARTHEST request: find candidates for the new centers of empty clusters.
+   * @param in the request stream, positioned after the opcode
+   * @param out the reply stream
+   * @throws IOException if the connection fails
+   */
+  private void farthest(DataInputStream in, DataOutputStream out) throws IOException {
+    int m = in.readInt();
+    int k = in.readInt();
+    if (cluster == null || k != this.k || m <= 0 || m > k) {
+      throw new IOException("bad FARTHEST: m = " + m + ", k = " + k);
+    }
+    double[] center = new double[2 * k];
+    for (int i = 0; i < center.length; i++) {
+      center[i] = in.readDouble();
+    }
+
+    double[] best = new double[3 * m];
+    KMeansImpl.farthest(shard, 0, cluster, center, null, best);
+    for (double b : best) {
+      out.writeDouble(b);
+    }
+  }
+
+  /**
+   * Main method. Load a shard and serve it.
+   * @param args the port, the path of the shard's TupleFile and optionally the address to
+   *             bind to
+   * @throws IOException if the shard cannot be loaded or the port cannot be used
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.out.println("usage: java ShardWorker port shard.bin [bind address]");
+      return;
+    }
+    int port = Integer.parseInt(args[0]);
+    InetAddress bind = args.length > 2 ? InetAddress.getByName(args[2])
+            : InetAddress.getLoopbackAddress();
+    PackedTuples shard = load(args[1]);
+    System.out.println("serving " + shard.size() + " points of " + args[1] + " on "
+            + bind.getHostAddress() + ":" + port);
+    new ShardWorker(shard).serve(bind, port);
+  }
+
+}
@@ -0,0 +1,471 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * TheilSenRegression fits a line whose slope is the median of the slopes through all pairs of
+ * points with different x, and whose intercept is the median of y - slope x. Up to about 29%
+ * of the points can be outliers without moving the line much.
+ *
+ * The median slope is found without listing the n(n-1)/2 slopes. With the points sorted by x,
+ * the number of pair slopes below t is the number of inversions of the sequence y - t x, which
+ * a merge sort counts in O(n log n). Random pairs give a first guess of an interval around the
+ * median slope; counting narrows it until it holds O(n) slopes, and a second merge sort lists
+ * exactly the slopes inside it, from which the median is picked.
+ */
+public class TheilSenRegression implements Algorithm {
+  private double slope;
+  private double intercept;
+  private long seed;
+
+  /**
+   * Construct a TheilSenRegression object.
+   */
+  public TheilSenRegression() {
+    this.seed = 0x5EEDL;
+  }
+
+  /**
+   * Set the seed of the random pairs used to guess the median, for repeatable timings.
+   * The result does not depend on it.
+   * @param seed the seed
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Get the slope.
+   * @return the slope
+   */
+  public double getSlope() {
+    return slope;
+  }
+
+  /**
+   * Get the intercept.
+   * @return the intercept
+   */
+  public double getIntercept() {
+    return intercept;
+  }
+
+  /**
+   * Get the fitted model.
+   * @return the fitted model
+   */
+  public LinearRegressionModel getModel() {
+    return new LinearRegressionModel(slope, intercept);
+  }
+
+  @Override
+  public void execute(ListOfTuplesImpl data) {
+    execute(data.pack(false));
+  }
+
+  /**
+   * Fit a line to packed data.
+   * @param data the points
+   */
+  public void execute(PackedTuples data) throws IllegalArgumentException {
+    Slopes slopes = new Slopes(data);
+    long pairs = slopes.pairs;
+    if (pairs == 0) {
+      throw new IllegalArgumentException("at least two different x-coordinates are needed!");
+    }
+
+    // the median of an even number of slopes is the mean of the middle two
+    long lower = (pairs - 1) / 2;
+    long upper = pairs / 2;
+    double[] found = slopes.select(lower, upper, new SplittableRandom(seed));
+    slope = (found[0] + found[1]) / 2;
+
+    double[] offsets = new double[data.size()];
+    for (int i = 0; i < offsets.length; i++) {
+      offsets[i] = data.getY(i) - slope * data.getX(i);
+    }
+    Arrays.sort(offsets);
+    int mid = offsets.length / 2;
+    intercept = offsets.length % 2 == 1 ? offsets[mid] : (offsets[mid - 1] + offsets[mid]) / 2;
+  }
+
+  /**
+   * The slopes of all pairs of points with different x, ranked by merge sorts.
+   *
+   * Two points i and j with x_i &lt; x_j have slope s exactly where their lines
+   * u(t) = y - t x cross: for t &lt; s, u_i(t) &lt; u_j(t), and for t &gt; s, u_i(t) &gt; u_j(t).
+   * So ordering the points by u(lo), just before lo, and then counting the pairs that are out
+   * of order by u(hi), gives the pairs with slope in [lo, hi).
+   */
+  private static final class Slopes {
+    // the length of the insertion-sorted runs of the counting merge sort
+    private static final int RUN = 16;
+    // the points sorted by x, then y
+    private final double[] xs;
+    private final double[] ys;
+    private final int n;
+    // the number of pairs with different x
+    private final long pairs;
+    // work space of the merge sorts
+    private final double[] keyA;
+    private final double[] keyB;
+    private final int[] ids;
+    private final double[] tmpA;
+    private final double[] tmpB;
+    private final int[] tmpIds;
+
+    /**
+     * Sort the points and count the pairs.
+     * @param data the points
+     */
+    Slopes(PackedTuples data) {
+      n = data.size();
+      keyA = new double[n];
+      keyB = new double[n];
+      ids = new int[n];
+      tmpA = new double[n];
+      tmpB = new double[n];
+      tmpIds = new int[n];
+      for (int i = 0; i < n; i++) {
+        keyA[i] = data.getX(i);
+        keyB[i] = data.getY(i);
+        ids[i] = i;
+      }
+      mergeSort(null);
+      xs = keyA.clone();
+      ys = keyB.clone();
+
+      long count = (long) n * (n - 1) / 2;
+      int groupStart = 0;
+      for (int i = 1; i <= n; i++) {
+        if (i == n || xs[i] != xs[groupStart]) {
+          long g = i - groupStart;
+          count -= g * (g - 1) / 2;
+          groupStart = i;
+        }
+      }
+      pairs = count;
+    }
+
+    /**
+     * Draw random pair slopes in [lo, hi), sorted, by drawing random pairs and keeping those
+     * with their slope inside.
+     * @param random the random source
+     * @param lo the lower bound
+     * @param hi the upper bound
+     * @param count the number of pair slopes in [lo, hi)
+     * @return the sorted slopes, or null if too few would fall inside for the tries allowed
+     */
+    double[] sample(SplittableRandom random, double lo, double hi, long count) {
+      long tries = 2L * n;
+      double expected = tries * (double) count / pairs;
+      if (expected < 1024) {
+        return null;
+      }
+      int m = (int) Math.min(expected / 2, Math.min(n, 1 << 20));
+      double[] sample = new double[m];
+      int drawn = 0;
+      for (long t = 0; drawn < m && t < tries; t++) {
+        int i = random.nextInt(n);
+        int j = random.nextInt(n);
+        if (xs[i] != xs[j]) {
+          double slope = (ys[j] - ys[i]) / (xs[j] - xs[i]);
+          if (slope >= lo && slope < hi) {
+            sample[drawn++] = slope;
+          }
+        }
+      }
+      sample = Arrays.copyOf(sample, drawn);
+      Arrays.sort(sample);
+      return sample;
+    }
+
+    /**
+     * Find the slopes of two neighbouring ranks.
+     * @param lower the lower rank, from 0
+     * @param upper the upper rank, lower or lower + 1
+     * @param random the source of the random slopes that guess where the ranks are
+     * @return {the slope of rank lower, the slope of rank upper}
+     */
+    double[] select(long lower, long upper, SplittableRandom random) {
+      // invariant: less(lo) <= lower and upper < less(hi)
+      double lo = Double.NEGATIVE_INFINITY;
+      double hi = Double.POSITIVE_INFINITY;
+      long lessLo = 0;
+      long lessHi = pairs;
+      int limit = Math.max(2 * n, 1024);
+      boolean sampling = true;
+      double[] sample = new double[0];
+
+      while (lessHi - lessLo > limit) {
+        double[] splits = null;
+        int from = lowerBound(sample, lo);
+        int inside = lowerBound(sample, hi) - from;
+        if (sampling && inside < 1024) {
+          // too few of the old random slopes are left inside: draw new ones there
+          sample = sample(random, lo, hi, lessHi - lessLo);
+          sampling = sample != null;
+          sample = sampling ? sample : new double[0];
+          from = 0;
+          inside = sample.length;
+        }
+        if (sampling && inside >= 64) {
+          // bracket the ranks with the random slopes that fell inside the interval
+          double fraction = inside * (double) (lower - lessLo) / (lessHi - lessLo);
+          double margin = 2 * Math.sqrt(inside);
+          splits = new double[] {sample[from + (int) Math.max(0, fraction - margin)],
+              sample[from + (int) Math.min(inside - 1, fraction + 1 + margin)]};
+        }
+        else {
+          sampling = false;
+          double mid = midpoint(lo, hi);
+          if (!(mid > lo && mid < hi)) {
+            // no double lies strictly between lo and hi: every slope in [lo, hi) is lo
+            return new double[] {lo, lo};
+          }
+          splits = new double[] {mid};
+        }
+
+        long before = lessHi - lessLo;
+        for (double split : splits) {
+          if (split > lo && split < hi) {
+            long less = less(split);
+            if (less <= lower) {
+              lo = split;
+              lessLo = less;
+            }
+            else if (upper < less) {
+              hi = split;
+              lessHi = less;
+            }
+            else {
+              // the split separates the two ranks; find each on its own
+              return new double[] {select(lower, lower, random)[0],
+                  select(upper, upper, random)[0]};
+            }
+          }
+        }
+        if (lessHi - lessLo == before) {
+          sampling = false;
+        }
+      }
+
+      /*
+       * list the slopes in [lo, hi) and pick the ranks from them
+       */
+      double[] inside = enumerate(lo, hi, (int) (lessHi - lessLo));
+      Arrays.sort(inside);
+      int first = (int) Math.max(0, Math.min(inside.length - 1, lower - lessLo));
+      int second = (int) Math.max(0, Math.min(inside.length - 1, upper - lessLo));
+      return new double[] {inside[first], inside[second]};
+    }
+
+    /**
+     * Count the pair slopes below t.
+     * @param t a finite bound
+     * @return the number of slopes &lt; t
+     */
+    long less(double t) {
+      double[] a = keyA;
+      for (int i = 0; i < n; i++) {
+        a[i] = ys[i] - t * xs[i];
+      }
+
+      /*
+       * the hot loop of the search: a merge sort of one key that only counts, starting from
+       * insertion-sorted runs
+       */
+      long inversions = 0;
+      for (int lo = 0; lo < n; lo += RUN) {
+        int hi = Math.min(lo + RUN, n);
+        for (int i = lo + 1; i < hi; i++) {
+          double v = a[i];
+          int j = i - 1;
+          while (j >= lo && a[j] > v) {
+            a[j + 1] = a[j];
+            j--;
+          }
+          a[j + 1] = v;
+          inversions += i - 1 - j;
+        }
+      }
+      double[] ta = tmpA;
+      for (int width = RUN; width < n; width *= 2) {
+        for (int lo = 0; lo < n; lo += 2 * width) {
+          int mid = Math.min(lo + width, n);
+          int hi = Math.min(lo + 2 * width, n);
+          int i = lo;
+          int j = mid;
+          int o = lo;
+          while (i < mid && j < hi) {
+            if (a[i] > a[j]) {
+              inversions += mid - i;
+              ta[o++] = a[j++];
+            }
+            else {
+              ta[o++] = a[i++];
+            }
+          }
+          System.arraycopy(a, i, ta, o, mid - i);
+          System.arraycopy(a, j, ta, o + mid - i, hi - j);
+        }
+        double[] swap = a;
+        a = ta;
+        ta = swap;
+      }
+      return inversions;
+    }
+
+    /**
+     * List the pair slopes in [lo, hi).
+     * @param lo the lower bound, finite or -infinity
+     * @param hi the upper bound, finite or +infinity
+     * @param expected about how many slopes there are
+     * @return the slopes, unordered
+     */
+    double[] enumerate(double lo, double hi, int expected) {
+      // order the points as they are just below lo
+      for (int i = 0; i < n; i++) {
+        keyA[i] = lo == Double.NEGATIVE_INFINITY ? xs[i] : ys[i] - lo * xs[i];
+        keyB[i] = lo == Double.NEGATIVE_INFINITY ? ys[i] : xs[i];
+        ids[i] = i;
+      }
+      mergeSort(null);
+
+      // then every pair out of order by u(hi) has its slope in [lo, hi)
+      for (int i = 0; i < n; i++) {
+        int id = ids[i];
+        keyA[i] = hi == Double.POSITIVE_INFINITY ? -xs[id] : ys[id] - hi * xs[id];
+        keyB[i] = hi == Double.POSITIVE_INFINITY ? ys[id] : 0;
+      }
+      double[][] out = {new double[Math.max(16, expected)]};
+      int count = (int) mergeSort(out);
+      return Arrays.copyOf(out[0], count);
+    }
+
+    /**
+     * Stable bottom-up merge sort of (keyA, keyB, ids) by (keyA, keyB), counting the
+     * inversions, and optionally listing the slopes of the inverted pairs.
+     * @param out where to put the slopes of the inverted pairs, grown as needed, or null
+     * @return the number of inversions
+     */
+    private long mergeSort(double[][] out) {
+      double[] a = keyA;
+      double[] b = keyB;
+      int[] id = ids;
+      double[] ta = tmpA;
+      double[] tb = tmpB;
+      int[] tid = tmpIds;
+      long inversions = 0;
+      for (int width = 1; width < n; width *= 2) {
+        for (int lo = 0; lo < n; lo += 2 * width) {
+          int mid = Math.min(lo + width, n);
+          int hi = Math.min(lo + 2 * width, n);
+          int i = lo;
+          int j = mid;
+          int o = lo;
+          while (i < mid && j < hi) {
+            if (a[i] > a[j] || (a[i] == a[j] && b[i] > b[j])) {
+              if (out != null) {
+                for (int q = i; q < mid; q++) {
+                  append(out, (int) (inversions + q - i), id[q], id[j]);
+                }
+              }
+              inversions += mid - i;
+              ta[o] = a[j];
+              tb[o] = b[j];
+              tid[o++] = id[j++];
+            }
+            else {
+              ta[o] = a[i];
+              tb[o] = b[i];
+              tid[o++] = id[i++];
+            }
+          }
+          System.arraycopy(a, i, ta, o, mid - i);
+          System.arraycopy(b, i, tb, o, mid - i);
+          System.arraycopy(id, i, tid, o, mid - i);
+          o += mid - i;
+          System.arraycopy(a, j, ta, o, hi - j);
+          System.arraycopy(b, j, tb, o, hi - j);
+          System.arraycopy(id, j, tid, o, hi - j);
+        }
+        double[] swap = a;
+        a = ta;
+        ta = swap;
+        swap = b;
+        b = tb;
+        tb = swap;
+        int[] swapIds = id;
+        id = tid;
+        tid = swapIds;
+      }
+      if (a != keyA) {
+        System.arraycopy(a, 0, keyA, 0, n);
+        System.arraycopy(b, 0, keyB, 0, n);
+        System.arraycopy(id, 0, ids, 0, n);
+      }
+      return inversions;
+    }
+
+    /**
+     * Store the slope of a pair of points at a position of a growable array.
+     * @param out the array, in a one-element holder
+     * @param position the position
+     * @param p one point
+     * @param q the other point
+     */
+    private void append(double[][] out, int position, int p, int q) {
+      if (position >= out[0].length) {
+        out[0] = Arrays.copyOf(out[0], 2 * out[0].length);
+      }
+      out[0][position] = (ys[q] - ys[p]) / (xs[q] - xs[p]);
+    }
+  }
+
+  /**
+   * The number of elements of a sorted array below a value.
+   * @param sorted the array
+   * @param value the value
+   * @return the index of the first element &gt;= value
+   */
+  private static int lowerBound(double[] sorted, double value) {
+    int lo = 0;
+    int hi = sorted.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (sorted[mid] < value) {
+        lo = mid + 1;
+      }
+      else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * A double halfway between two others in the order of their bit patterns, so that repeated
+   * halving reaches neighbouring doubles after at most 64 steps, even from infinity.
+   * @param lo the lower double
+   * @param hi the higher double
+   * @return a double in [lo, hi]
+   */
+  private static double midpoint(double lo, double hi) {
+    long a = sortable(lo);
+    long b = sortable(hi);
+    long mid = (a >> 1) + (b >> 1) + (a & b & 1);
+    return mid >= 0 ? Double.longBitsToDouble(mid)
+            : Double.longBitsToDouble(mid ^ Long.MAX_VALUE);
+  }
+
+  /**
+   * Map a double to a long with the same order.
+   * @param d the double
+   * @return the long
+   */
+  private static long sortable(double d) {
+    long bits = Double.doubleToLongBits(d);
+    return bits >= 0 ? bits : bits ^ Long.MAX_VALUE;
+  }
+
+}
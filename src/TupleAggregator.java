@@ -0,0 +1,29 @@
+/**
+ * TupleAggregator is a summary of a dataset that is built in one pass over the points and
+ * whose summaries of disjoint parts merge, such as the RegressionStats of a line fit or the
+ * bounds of the data. FusedScan computes several of them together in one (parallel) pass.
+ * @param <A> the type of the aggregator itself
+ */
+public interface TupleAggregator<A extends TupleAggregator<A>> {
+
+  /**
+   * Create an empty aggregator of the same kind and configuration, for another part of the
+   * data.
+   * @return the empty aggregator
+   */
+  A empty();
+
+  /**
+   * Add a range of points.
+   * @param data the points
+   * @param start the first point
+   * @param end the point after the last
+   */
+  void accumulate(PackedTuples data, int start, int end);
+
+  /**
+   * Merge the summary of another part of the data, which follows the parts merged so far.
+   * @param other the other aggregator, created by empty
+   */
+  void combine(A other);
+}
@@ -0,0 +1,309 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * TupleFile is a file-backed dataset of Tuples, for data that does not fit in memory.
+ *
+ * The file starts with a 24 byte header - magic number, version, bytes per coordinate,
+ * a reserved int and the number of Tuples as a long - followed by the interleaved
+ * little-endian x- and y-coordinates, as floats or as doubles.
+ *
+ * The data is read in fixed-size chunks; while one chunk is being processed,
+ * the next one is already read in the background.
+ */
+public class TupleFile implements Closeable {
+  static final int MAGIC = 0x54504C53; // "TPLS"
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 24;
+
+  private final FileChannel channel;
+  private final long size;
+  private final boolean singlePrecision;
+  private final ExecutorService readAhead;
+
+  /**
+   * ChunkVisitor is called with every chunk of a TupleFile, in order.
+   */
+  public interface ChunkVisitor {
+    /**
+     * Process one chunk. The chunk is only valid until this method returns;
+     * its storage is reused for later chunks.
+     * @param chunk the Tuples of this chunk
+     * @param offset the index of the first Tuple of this chunk in the whole file
+     */
+    void visit(PackedTuples chunk, long offset);
+  }
+
+  /**
+   * Construct a TupleFile object around an open channel.
+   * @param channel the channel to read from
+   * @param size the number of Tuples in the file
+   * @param singlePrecision whether the coordinates are stored as floats
+   */
+  private TupleFile(FileChannel channel, long size, boolean singlePrecision) {
+    this.channel = channel;
+    this.size = size;
+    this.singlePrecision = singlePrecision;
+    this.readAhead = Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "TupleFile-read-ahead");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Open a TupleFile for reading.
+   * @param path the path of the file
+   * @return the opened TupleFile
+   * @throws IOException if the file cannot be read or is not a TupleFile
+   */
+  public static TupleFile open(String path) throws IOException {
+    FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+    try {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(channel, header, 0);
+      header.flip();
+      if (header.getInt() != MAGIC) {
+        throw new IOException(path + " is not a TupleFile!");
+      }
+      int version = header.getInt();
+      if (version != VERSION) {
+        throw new IOException("unsupported TupleFile version " + version);
+      }
+      int bytesPerCoord = header.getInt();
+      header.getInt(); // reserved
+      long size = header.getLong();
+      // divided rather than multiplied, so that a corrupt size cannot overflow
+      if ((bytesPerCoord != 4 && bytesPerCoord != 8) || size < 0
+              || size > (channel.size() - HEADER_BYTES) / (2 * bytesPerCoord)) {
+        throw new IOException(path + " is truncated or corrupt!");
+      }
+      return new TupleFile(channel, size, bytesPerCoord == 4);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Write packed Tuples to a TupleFile, in the precision they are stored in.
+   * @param path the path of the file
+   * @param data the Tuples to write
+   * @throws IOException if the file cannot be written
+   */
+  public static void write(String path, PackedTuples data) throws IOException {
+    try (FileChannel out = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+      writeHeader(buffer, data.size(), data.isSinglePrecision());
+
+      for (int i = 0; i < data.size(); i++) {
+        if (buffer.remaining() < 16) {
+          buffer.flip();
+          writeFully(out, buffer);
+          buffer.clear();
+        }
+        if (data.isSinglePrecision()) {
+          buffer.putFloat((float) data.getX(i));
+          buffer.putFloat((float) data.getY(i));
+        }
+        else {
+          buffer.putDouble(data.getX(i));
+          buffer.putDouble(data.getY(i));
+        }
+      }
+      buffer.flip();
+      writeFully(out, buffer);
+    }
+  }
+
+  /**
+   * Put the header of a TupleFile into a buffer.
+   * @param buffer the buffer, positioned at the start of the file
+   * @param size the number of Tuples
+   * @param singlePrecision whether the coordinates are stored as floats
+   */
+  static void writeHeader(ByteBuffer buffer, long size, boolean singlePrecision) {
+    buffer.putInt(MAGIC);
+    buffer.putInt(VERSION);
+    buffer.putInt(singlePrecision ? 4 : 8);
+    buffer.putInt(0);
+    buffer.putLong(size);
+  }
+
+  /**
+   * Get the number of Tuples in the file.
+   * @return the number of Tuples
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * Check whether the coordinates are stored in single precision.
+   * @return true if the coordinates are floats; false if they are doubles
+   */
+  public boolean isSinglePrecision() {
+    return singlePrecision;
+  }
+
+  /**
+   * Read a single Tuple.
+   * @param i the index of the Tuple
+   * @return the Tuple
+   * @throws IOException if the file cannot be read
+   */
+  public Tuple get(long i) throws IOException {
+    int bytesPerCoord = singlePrecision ? 4 : 8;
+    ByteBuffer buffer = ByteBuffer.allocate(2 * bytesPerCoord).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(channel, buffer, HEADER_BYTES + i * 2 * bytesPerCoord);
+    buffer.flip();
+    if (singlePrecision) {
+      return new Tuple(buffer.getFloat(), buffer.getFloat());
+    }
+    return new Tuple(buffer.getDouble(), buffer.getDouble());
+  }
+
+  /**
+   * Visit every Tuple of the file in chunks of chunkSize Tuples (the last one may be smaller).
+   * Two chunk buffers are used in turn, so that the next chunk is read while the current
+   * one is visited; no memory is allocated per chunk.
+   * @param chunkSize the number of Tuples per chunk
+   * @param visitor the visitor to call with each chunk
+   * @throws IOException if the file cannot be read
+   * @throws IllegalArgumentException if the chunk size is not positive, or a chunk would take
+   *                                  more than 2^31 - 1 bytes
+   */
+  public void forEachChunk(int chunkSize, ChunkVisitor visitor) throws IOException {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("chunk size has to be positive!");
+    }
+    long chunks = (size + chunkSize - 1) / chunkSize;
+    if (chunks == 0) {
+      return;
+    }
+
+    int bufferTuples = (int) Math.min(chunkSize, size);
+    if ((long) bufferTuples * 2 * (singlePrecision ? 4 : 8) > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("chunk size " + chunkSize + " does not fit a buffer!");
+    }
+    Chunk[] buffers = {new Chunk(bufferTuples), new Chunk(bufferTuples)};
+    Future<PackedTuples> next = readAhead.submit(() -> buffers[0].read(0));
+    for (long c = 0; c < chunks; c++) {
+      PackedTuples current = await(next);
+      if (c + 1 < chunks) {
+        long start = (c + 1) * chunkSize;
+        Chunk buffer = buffers[(int) ((c + 1) % 2)];
+        next = readAhead.submit(() -> buffer.read(start));
+      }
+      visitor.visit(current, c * chunkSize);
+    }
+  }
+
+  /**
+   * Wait for a chunk being read in the background.
+   * @param future the pending chunk
+   * @return the chunk
+   * @throws IOException if reading the chunk failed
+   */
+  private static PackedTuples await(Future<PackedTuples> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while reading ahead", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    readAhead.shutdownNow();
+    channel.close();
+  }
+
+  /**
+   * Read from a channel at a position until the buffer is full.
+   * @param channel the channel to read from
+   * @param buffer the buffer to fill
+   * @param position the position in the file to start from
+   * @throws IOException if the end of the file is reached first
+   */
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+          throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new IOException("unexpected end of file");
+      }
+      position += read;
+    }
+  }
+
+  /**
+   * Write the whole buffer to a channel.
+   * @param channel the channel to write to
+   * @param buffer the buffer to drain
+   * @throws IOException if writing fails
+   */
+  static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * A reusable chunk buffer: the raw bytes and the coordinates decoded from them.
+   */
+  private class Chunk {
+    private final ByteBuffer bytes;
+    private final double[] coords;
+    private final float[] coordsF;
+
+    /**
+     * Construct a chunk buffer.
+     * @param capacity the number of Tuples it can hold, at most 2^31 - 1 bytes' worth
+     */
+    Chunk(int capacity) {
+      bytes = ByteBuffer.allocateDirect(capacity * 2 * (singlePrecision ? 4 : 8))
+              .order(ByteOrder.LITTLE_ENDIAN);
+      coords = singlePrecision ? null : new double[2 * capacity];
+      coordsF = singlePrecision ? new float[2 * capacity] : null;
+    }
+
+    /**
+     * Read the chunk starting at the given Tuple.
+     * @param start the index of the first Tuple
+     * @return the Tuples of the chunk
+     * @throws IOException if the file cannot be read
+     */
+    PackedTuples read(long start) throws IOException {
+      int count = (int) Math.min(size - start, bytes.capacity() / (singlePrecision ? 8 : 16));
+      int bytesPerCoord = singlePrecision ? 4 : 8;
+      bytes.clear();
+      bytes.limit(count * 2 * bytesPerCoord);
+      readFully(channel, bytes, HEADER_BYTES + start * 2 * bytesPerCoord);
+      bytes.flip();
+      if (singlePrecision) {
+        bytes.asFloatBuffer().get(coordsF, 0, 2 * count);
+        return new PackedTuples(coordsF, count);
+      }
+      bytes.asDoubleBuffer().get(coords, 0, 2 * count);
+      return new PackedTuples(coords, count);
+    }
+  }
+
+}
@@ -0,0 +1,134 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the guarantees KMeansImpl documents: a seeded run gives the same result on any number
+ * of threads, and an empty cluster is repaired instead of getting a NaN center.
+ */
+public class KMeansImplTest {
+
+  /**
+   * Points in a few Gaussian blobs, over enough blocks that the threads share the work.
+   * @param n the number of points
+   * @param seed the seed of the points
+   * @return the interleaved x- and y-coordinates
+   */
+  private static double[] blobs(int n, long seed) {
+    SplittableRandom random = new SplittableRandom(seed);
+    double[] coords = new double[2 * n];
+    for (int i = 0; i < n; i++) {
+      int blob = i % 7;
+      coords[2 * i] = 40 * (blob % 3) + 4 * gaussian(random);
+      coords[2 * i + 1] = 40 * (blob / 3) + 4 * gaussian(random);
+    }
+    return coords;
+  }
+
+  /**
+   * Points of which half sit on one spot, so that clusters start out empty.
+   * @param n the number of points
+   * @return the interleaved x- and y-coordinates
+   */
+  private static double[] duplicates(int n) {
+    SplittableRandom random = new SplittableRandom(1);
+    double[] coords = new double[2 * n];
+    for (int i = 0; i < n; i++) {
+      boolean spot = i < n / 2;
+      coords[2 * i] = spot ? 5 : 100 * gaussian(random);
+      coords[2 * i + 1] = spot ? 5 : 100 * gaussian(random);
+    }
+    return coords;
+  }
+
+  /**
+   * A standard normal number, from the Box-Muller transform.
+   * @param random the generator
+   * @return the number
+   */
+  private static double gaussian(SplittableRandom random) {
+    return Math.sqrt(-2 * Math.log(1 - random.nextDouble()))
+            * Math.cos(2 * Math.PI * random.nextDouble());
+  }
+
+  @Test
+  public void seededRunIsIdenticalForAnyParallelism() {
+    for (boolean singlePrecision : new boolean[] {false, true}) {
+      double[] coords = blobs(100_000, 11);
+      float[] coordsF = new float[coords.length];
+      for (int i = 0; i < coords.length; i++) {
+        coordsF[i] = (float) coords[i];
+      }
+      PackedTuples data = singlePrecision ? new PackedTuples(coordsF) : new PackedTuples(coords);
+      double[] expected = null;
+      Assignments assigned = null;
+      for (int parallelism : new int[] {1, 2, 3, 8}) {
+        KMeansImpl kmeans = new KMeansImpl(12);
+        kmeans.setSeed(42);
+        kmeans.setParallelism(parallelism);
+        kmeans.execute(data);
+        double[] centers = kmeans.getModel().getCenters();
+        if (expected == null) {
+          expected = centers;
+          assigned = kmeans.getAssignments();
+          continue;
+        }
+        // bit-identical, not merely close
+        assertArrayEquals(expected, centers, 0.0, "parallelism " + parallelism);
+        for (int i = 0; i < data.size(); i++) {
+          assertEquals(assigned.get(i), kmeans.getAssignments().get(i));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void emptyClustersGetNoNaNCenters() {
+    PackedTuples data = new PackedTuples(duplicates(20_000));
+    for (KMeansImpl.EmptyClusterRepair repair : KMeansImpl.EmptyClusterRepair.values()) {
+      for (int mode = 0; mode < 3; mode++) {
+        KMeansImpl kmeans = new KMeansImpl(30);
+        kmeans.setSeed(7);
+        kmeans.setEmptyClusterRepair(repair);
+        kmeans.setFiltering(mode == 1);
+        kmeans.setIncrementalUpdate(mode == 2);
+        kmeans.execute(data);
+        assertNoNaN(kmeans.getModel().getCenters(), repair + " mode " + mode);
+        assertFalse(kmeans.getRepairs() == 0, "nothing was repaired");
+      }
+    }
+  }
+
+  @Test
+  public void emptyClustersGetNoNaNCentersOutOfCore() throws IOException {
+    File file = File.createTempFile("kmeans-test", ".bin");
+    try {
+      TupleFile.write(file.getPath(), new PackedTuples(duplicates(20_000)));
+      try (TupleFile data = TupleFile.open(file.getPath())) {
+        KMeansImpl kmeans = new KMeansImpl(30);
+        kmeans.setSeed(7);
+        kmeans.execute(data, 3000);
+        assertNoNaN(kmeans.getModel().getCenters(), "out-of-core");
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Fail if any coordinate is NaN.
+   * @param centers the interleaved coordinates of the centers
+   * @param message what was clustered
+   */
+  private static void assertNoNaN(double[] centers, String message) {
+    for (double c : centers) {
+      assertFalse(Double.isNaN(c), message);
+    }
+  }
+
+}
@@ -0,0 +1,85 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that TheilSenRegression finds exactly the median of the pair slopes that listing all
+ * of them gives, with and without ties.
+ */
+public class TheilSenRegressionTest {
+
+  /**
+   * The median slope, the slow way: list the slopes of all pairs with different x.
+   * @param data the points
+   * @return the median
+   */
+  private static double naiveMedian(PackedTuples data) {
+    int n = data.size();
+    double[] slopes = new double[n * (n - 1) / 2];
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      for (int j = i + 1; j < n; j++) {
+        double dx = data.getX(j) - data.getX(i);
+        if (dx != 0) {
+          slopes[count++] = (data.getY(j) - data.getY(i)) / dx;
+        }
+      }
+    }
+    Arrays.sort(slopes, 0, count);
+    return (slopes[(count - 1) / 2] + slopes[count / 2]) / 2;
+  }
+
+  /**
+   * Random points; with ties, the coordinates are small integers, so x, y and slopes repeat.
+   * @param n the number of points
+   * @param ties whether to draw tied coordinates
+   * @param seed the seed of the points
+   * @return the points
+   */
+  private static PackedTuples points(int n, boolean ties, long seed) {
+    SplittableRandom random = new SplittableRandom(seed);
+    double[] coords = new double[2 * n];
+    for (int i = 0; i < n; i++) {
+      double x = ties ? random.nextInt(8) : random.nextDouble() * 100;
+      double noise = ties ? random.nextInt(5) : random.nextDouble() * 20;
+      coords[2 * i] = x;
+      coords[2 * i + 1] = 3 * x + noise;
+    }
+    return new PackedTuples(coords);
+  }
+
+  @Test
+  public void slopeIsTheExactMedian() {
+    for (long seed = 0; seed < 6; seed++) {
+      for (boolean ties : new boolean[] {false, true}) {
+        for (int n : new int[] {2, 3, 17, 200, 1500}) {
+          PackedTuples data = points(n, ties, seed);
+          if (ties && n == 2 && data.getX(0) == data.getX(1)) {
+            continue;
+          }
+          TheilSenRegression regression = new TheilSenRegression();
+          regression.setSeed(seed);
+          regression.execute(data);
+          assertEquals(naiveMedian(data), regression.getSlope(), 0.0,
+                  "n=" + n + " ties=" + ties + " seed=" + seed);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void slopeDoesNotDependOnTheSeed() {
+    PackedTuples data = points(3000, true, 99);
+    TheilSenRegression regression = new TheilSenRegression();
+    regression.execute(data);
+    double expected = regression.getSlope();
+    for (long seed = 1; seed < 5; seed++) {
+      regression.setSeed(seed);
+      regression.execute(data);
+      assertEquals(expected, regression.getSlope(), 0.0);
+    }
+  }
+
+}